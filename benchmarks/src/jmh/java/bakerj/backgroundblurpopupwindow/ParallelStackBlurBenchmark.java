@@ -0,0 +1,53 @@
+package bakerj.backgroundblurpopupwindow;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling of the parallel stack blur with the number of bands, one band per thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ParallelStackBlurBenchmark {
+
+    @Param({"720p", "1080p", "1440p"})
+    public String screen;
+
+    @Param({"1", "4"})
+    public float downScaleFactor;
+
+    @Param({"6", "25"})
+    public int radius;
+
+    @Param({"1", "2", "4", "8"})
+    public int bands;
+
+    private int mWidth, mHeight;
+    private int[] mPixels;
+    private StackBlurContext mContext;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] size = StackBlurBenchmark.screenSize(screen);
+        mHeight = (int) Math.ceil(size[1] / downScaleFactor);
+        mWidth = (int) Math.ceil(size[0] * (double) mHeight / size[1]);
+        mPixels = StackBlurBenchmark.randomPixels(mWidth * mHeight);
+        mContext = new StackBlurContext();
+    }
+
+    @Benchmark
+    public int[] parallel() {
+        ParallelStackBlur.blur(mPixels, 0, mWidth, mWidth, mHeight, radius, mContext, bands);
+        return mPixels;
+    }
+}
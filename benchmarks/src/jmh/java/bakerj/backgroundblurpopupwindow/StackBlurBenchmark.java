@@ -0,0 +1,115 @@
+package bakerj.backgroundblurpopupwindow;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of blurring a screen capture with each stack blur kernel.
+ * <p/>
+ * Captures are down scaled like BlurPopupEngine does, 1 being the default factor of
+ * BackgroundBlurPopupWindow and 4 the one of BlurPopupEngine.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StackBlurBenchmark {
+
+    @Param({"720p", "1080p", "1440p"})
+    public String screen;
+
+    @Param({"1", "4"})
+    public float downScaleFactor;
+
+    @Param({"1", "6", "25", "50"})
+    public int radius;
+
+    private int mWidth, mHeight;
+    private int[] mPixels;
+    private StackBlurContext mContext;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] size = screenSize(screen);
+        mHeight = (int) Math.ceil(size[1] / downScaleFactor);
+        mWidth = (int) Math.ceil(size[0] * (double) mHeight / size[1]);
+        mPixels = randomPixels(mWidth * mHeight);
+        mContext = new StackBlurContext();
+    }
+
+    /**
+     * Kernel as it was before scratch buffers and division tables were kept, allocating and
+     * filling everything on each call.
+     */
+    @Benchmark
+    public int[] planesAllocating() {
+        int wh = mWidth * mHeight;
+        int div = radius + radius + 1;
+        int divsum = (div + 1) >> 1;
+        divsum *= divsum;
+        int[] dv = new int[256 * divsum];
+        for (int i = 0; i < dv.length; i++) {
+            dv[i] = i / divsum;
+        }
+        int[] hmin = new int[mWidth];
+        int[] vmin = new int[mHeight];
+        for (int x = 0; x < mWidth; x++) {
+            hmin[x] = Math.min(x + radius + 1, mWidth - 1);
+        }
+        for (int y = 0; y < mHeight; y++) {
+            vmin[y] = Math.min(y + radius + 1, mHeight - 1) * mWidth;
+        }
+        int[] r = new int[wh];
+        int[] g = new int[wh];
+        int[] b = new int[wh];
+        int[][] stack = new int[div][3];
+        StackBlurKernel.blurRows(mPixels, 0, mWidth, mWidth, mHeight, radius, r, g, b, hmin, dv,
+                stack, null, 0, mHeight);
+        StackBlurKernel.blurColumns(mPixels, 0, mWidth, mWidth, mHeight, radius, r, g, b, vmin,
+                dv, stack, null, 0, mWidth);
+        return mPixels;
+    }
+
+    @Benchmark
+    public int[] planes() {
+        StackBlurKernel.blur(mPixels, 0, mWidth, mWidth, mHeight, radius, mContext);
+        return mPixels;
+    }
+
+    @Benchmark
+    public int[] packed() {
+        PackedStackBlurKernel.blur(mPixels, 0, mWidth, mWidth, mHeight, radius, mContext);
+        return mPixels;
+    }
+
+    static int[] screenSize(String screen) {
+        switch (screen) {
+            case "720p":
+                return new int[]{720, 1280};
+            case "1080p":
+                return new int[]{1080, 1920};
+            case "1440p":
+                return new int[]{1440, 2560};
+            default:
+                throw new IllegalArgumentException("Unknown screen " + screen);
+        }
+    }
+
+    static int[] randomPixels(int count) {
+        Random random = new Random(42);
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+}
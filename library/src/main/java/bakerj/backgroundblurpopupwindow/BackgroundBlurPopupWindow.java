@@ -8,6 +8,7 @@ import android.os.Build;
 import android.os.IBinder;
 import android.util.DisplayMetrics;
 import android.view.Gravity;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.FrameLayout;
@@ -15,6 +16,7 @@ import android.widget.ImageView;
 import android.widget.PopupWindow;
 
 import java.lang.ref.WeakReference;
+import java.util.concurrent.Executor;
 
 
 /**
@@ -40,6 +42,37 @@ public class BackgroundBlurPopupWindow extends PopupWindow {
             mAbovePositionView, mFillPositionView;
     private int mBlurTopBottomFixSize;
 
+    /**
+     * View given to {@link #blurOnTouchDown(View)}, whose touch listener is removed on destroy.
+     */
+    private WeakReference<View> mTouchAnchor;
+
+    /**
+     * Start blurring when an anchor is pressed, drop the blur if the gesture doesn't click it.
+     */
+    private final View.OnTouchListener mSpeculativeBlurListener = new View.OnTouchListener() {
+        @Override
+        public boolean onTouch(View v, MotionEvent event) {
+            switch (event.getActionMasked()) {
+                case MotionEvent.ACTION_DOWN:
+                    onAnchorPressed();
+                    break;
+                case MotionEvent.ACTION_UP:
+                    if (event.getX() < 0 || event.getY() < 0 || event.getX() > v.getWidth()
+                            || event.getY() > v.getHeight()) {
+                        onAnchorPressCancelled();
+                    }
+                    break;
+                case MotionEvent.ACTION_CANCEL:
+                    onAnchorPressCancelled();
+                    break;
+                default:
+                    break;
+            }
+            return false;
+        }
+    };
+
     /**
      * Constructor without blur
      */
@@ -78,8 +111,9 @@ public class BackgroundBlurPopupWindow extends PopupWindow {
         mBackgroundLayout.addView(mBlurView);
         mBackgroundLayout.setBackgroundColor(Color.TRANSPARENT);
         View rootView = activity.findViewById(android.R.id.content);
+        // popups of the activity share their blur resources and blurred backgrounds
         mBlurPopupEngine = new BlurPopupEngine(300, mBackgroundLayout.getContext(),
-                rootView, mBlurView);
+                rootView, mBlurView, BlurService.obtain(activity));
         mBlurPopupEngine.setBlurRadius(DEFAULT_BLUR_RADIUS);
         mBlurPopupEngine.setDownScaleFactor(DEFAULT_BLUR_DOWN_SCALE_FACTOR);
         mBlurPopupEngine.setUseRenderScript(true);
@@ -144,6 +178,133 @@ public class BackgroundBlurPopupWindow extends PopupWindow {
         mBlurPopupEngine.setUseRenderScript(useRenderScript);
     }
 
+    /**
+     * Enable / disable live blur
+     * <p/>
+     * By default live blur is set to
+     * {@link BlurPopupEngine#DEFAULT_LIVE_BLUR}
+     * <p/>
+     * When enabled, the blurred background follows the content behind the popup, which is
+     * captured and blurred again whenever it is drawn.
+     *
+     * @param live true to keep the blurred background up to date
+     * @see #setLiveBlurMaxFps(int)
+     */
+    public void setLiveBlur(boolean live) {
+        mBlurPopupEngine.setLiveBlur(live);
+    }
+
+    /**
+     * Apply custom frame rate limit to live blur
+     * <p/>
+     * By default frame rate limit is set to
+     * {@link BlurPopupEngine#DEFAULT_LIVE_BLUR_MAX_FPS}
+     *
+     * @param maxFps most blurred backgrounds shown per second
+     */
+    public void setLiveBlurMaxFps(int maxFps) {
+        mBlurPopupEngine.setLiveBlurMaxFps(maxFps);
+    }
+
+    /**
+     * Set the duration the blur should fit in
+     * <p/>
+     * By default latency budget is set to
+     * {@link BlurPopupEngine#DEFAULT_BLUR_LATENCY_BUDGET}
+     * <p/>
+     * When set, down scale factor and radius are adapted to the speed of the device, keeping
+     * the apparent blur strength.
+     *
+     * @param budgetMs duration of the blur, in milli, 0 to disable
+     * @see BlurPopupEngine#setBlurLatencyBudget(int)
+     */
+    public void setBlurLatencyBudget(int budgetMs) {
+        mBlurPopupEngine.setBlurLatencyBudget(budgetMs);
+    }
+
+    /**
+     * Set the color shown instead of the blurred background when there isn't enough memory
+     * to blur it
+     * <p/>
+     * By default fallback color is set to
+     * {@link BlurPopupEngine#DEFAULT_FALLBACK_COLOR}, the dark color still dimming the
+     * background then.
+     *
+     * @param color color shown below the dark color
+     * @see BlurPopupEngine#setFallbackColor(int)
+     */
+    public void setFallbackColor(int color) {
+        mBlurPopupEngine.setFallbackColor(color);
+    }
+
+    /**
+     * Set the listener notified of the cost of each blurred background shown
+     *
+     * @param listener listener called on ui thread, null to remove it
+     * @see BlurMetrics
+     */
+    public void setBlurMetricsListener(BlurMetricsListener listener) {
+        mBlurPopupEngine.setBlurMetricsListener(listener);
+    }
+
+    /**
+     * Warm up everything the first blur needs, out of ui thread
+     *
+     * @see BlurPopupEngine#prewarm()
+     */
+    public void prewarm() {
+        mBlurPopupEngine.prewarm();
+    }
+
+    /**
+     * Warm up everything the first blur needs once the ui thread is idle
+     *
+     * @see BlurPopupEngine#prewarmWhenIdle()
+     */
+    public void prewarmWhenIdle() {
+        mBlurPopupEngine.prewarmWhenIdle();
+    }
+
+    /**
+     * Set the executor blurs run on
+     * <p/>
+     * Popups of an activity share their blur buffers, so their blurs still run one at a time,
+     * even on different executors.
+     *
+     * @param executor executor running blurs, null to use a {@link LatestBlurExecutor}
+     * @see BlurPopupEngine#setBlurExecutor(Executor)
+     */
+    public void setBlurExecutor(Executor executor) {
+        mBlurPopupEngine.setBlurExecutor(executor);
+    }
+
+    /**
+     * Set the algorithms used to blur
+     * <p/>
+     * For each blur, the cheapest algorithm supporting the radius is used.
+     *
+     * @param algorithms candidate algorithms, none to go back to the default behaviour
+     * @see BlurPopupEngine#setBlurAlgorithms(BlurAlgorithm...)
+     */
+    public void setBlurAlgorithms(BlurAlgorithm... algorithms) {
+        mBlurPopupEngine.setBlurAlgorithms(algorithms);
+    }
+
+    /**
+     * Enable / disable progressive blur
+     * <p/>
+     * By default progressive blur is set to
+     * {@link BlurPopupEngine#DEFAULT_PROGRESSIVE_BLUR}
+     * <p/>
+     * When enabled, a cheap low resolution blur is shown right away, then cross-faded into the
+     * full quality one.
+     *
+     * @param progressive true to show a preview while blurring
+     */
+    public void setProgressiveBlur(boolean progressive) {
+        mBlurPopupEngine.setProgressiveBlur(progressive);
+    }
+
     /**
      * create dark layout
      *
@@ -201,6 +362,7 @@ public class BackgroundBlurPopupWindow extends PopupWindow {
 
     @Override
     public void showAsDropDown(View anchor, int xoff, int yoff) {
+        setAnchorView(anchor);
         invokeBgCover();
         super.showAsDropDown(anchor, xoff, yoff);
     }
@@ -435,6 +597,71 @@ public class BackgroundBlurPopupWindow extends PopupWindow {
         mBelow = mLocationInWindowPosition[1] + view.getHeight();
     }
 
+    /**
+     * start blurring as soon as the anchor view is pressed, so that the blur is mostly done when
+     * its click shows this popup
+     * <p/>
+     * <b>Replaces the touch listener of the view</b>, without consuming any event, until
+     * {@link #onDestroy()} removes it. The blur is dropped if the gesture is cancelled or ends
+     * outside of the view. A view needing its own touch listener should rather call
+     * {@link #onAnchorPressed()} and {@link #onAnchorPressCancelled()} from it.
+     *
+     * @param anchor view whose click shows this popup, null to remove the listener from the
+     *               previous one
+     * @see BlurPopupEngine#startSpeculativeBlur()
+     */
+    public void blurOnTouchDown(View anchor) {
+        View previous = mTouchAnchor != null ? mTouchAnchor.get() : null;
+        if (previous != null && previous != anchor) {
+            previous.setOnTouchListener(null);
+        }
+        mTouchAnchor = null;
+        if (mBlurPopupEngine != null && anchor != null) {
+            anchor.setOnTouchListener(mSpeculativeBlurListener);
+            mTouchAnchor = new WeakReference<>(anchor);
+            setAnchorView(anchor);
+        }
+    }
+
+    /**
+     * set the view whose click shows this popup, so that drawing it pressed doesn't prevent
+     * showing the last blurred background again
+     * <p/>
+     * Already done by {@link #showAsDropDown(View, int, int)} and
+     * {@link #blurOnTouchDown(View)}.
+     *
+     * @param anchor view whose click shows this popup, null to forget it
+     * @see BlurPopupEngine#setAnchorView(View)
+     */
+    public void setAnchorView(View anchor) {
+        if (mBlurPopupEngine != null) {
+            mBlurPopupEngine.setAnchorView(anchor);
+        }
+    }
+
+    /**
+     * start blurring because the view whose click shows this popup has just been pressed, to be
+     * called from its touch listener on {@link MotionEvent#ACTION_DOWN}
+     *
+     * @see #blurOnTouchDown(View)
+     */
+    public void onAnchorPressed() {
+        if (mBlurPopupEngine != null && !isShowing() && getContentView() != null) {
+            checkPosition();
+            mBlurPopupEngine.startSpeculativeBlur();
+        }
+    }
+
+    /**
+     * drop the blur started by {@link #onAnchorPressed()}, to be called when the gesture is
+     * cancelled or ends outside of the view
+     */
+    public void onAnchorPressCancelled() {
+        if (mBlurPopupEngine != null) {
+            mBlurPopupEngine.cancelSpeculativeBlur();
+        }
+    }
+
     /**
      * get dark anim style
      *
@@ -461,7 +688,11 @@ public class BackgroundBlurPopupWindow extends PopupWindow {
         this.isDarkShowing = isDarkShowing;
     }
 
+    /**
+     * release the blur resources, to be called when the activity is destroyed
+     */
     public void onDestroy() {
+        blurOnTouchDown(null);
         if (mBlurPopupEngine != null) {
             mBlurPopupEngine.onDestroy();
         }
@@ -0,0 +1,249 @@
+package bakerj.backgroundblurpopupwindow;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bitmaps no longer used by a stage of the blur pipeline, kept for the next one needing the
+ * same size and config.
+ * <p/>
+ * Bitmaps are grouped by size and config, the least recently used group being evicted first
+ * once the pool holds more than its maximum number of bytes. Since KitKat, a bitmap with
+ * enough memory is reconfigured when no group matches, as BitmapFactory does with inBitmap.
+ * <p/>
+ * Thread safe, bitmaps being obtained on ui thread for captures and on blur thread for
+ * patches.
+ */
+public final class BitmapPool {
+
+    /**
+     * Default maximum number of bytes, as a fraction of the heap.
+     */
+    public static final int DEFAULT_HEAP_FRACTION = 16;
+
+    /**
+     * Pooled bitmaps by size and config, in least recently used order.
+     */
+    private final LinkedHashMap<Bucket, ArrayList<Bitmap>> mBuckets =
+            new LinkedHashMap<Bucket, ArrayList<Bitmap>>(8, 0.75f, true);
+
+    /**
+     * Reused to look buckets up without allocating.
+     */
+    private final Bucket mLookup = new Bucket();
+
+    private final long mMaxBytes;
+    private long mBytes;
+
+    /**
+     * Constructor of a pool holding at most 1/{@link #DEFAULT_HEAP_FRACTION} of the heap.
+     */
+    public BitmapPool() {
+        this(Runtime.getRuntime().maxMemory() / DEFAULT_HEAP_FRACTION);
+    }
+
+    /**
+     * @param maxBytes maximum number of bytes of the pooled bitmaps
+     */
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Take an erased pooled bitmap of the given size and config.
+     *
+     * @return mutable bitmap the caller owns until it is put back, null if none fits, the
+     * caller creating one then
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        mLookup.set(width, height, config);
+        ArrayList<Bitmap> bitmaps = mBuckets.get(mLookup);
+        Bitmap bitmap = null;
+        if (bitmaps != null) {
+            bitmap = bitmaps.remove(bitmaps.size() - 1);
+            if (bitmaps.isEmpty()) {
+                mBuckets.remove(mLookup);
+            }
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            bitmap = reconfigureLargeEnough(width, height, config);
+        }
+        if (bitmap == null) {
+            return null;
+        }
+        mBytes -= getByteCount(bitmap);
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Give a bitmap back, it must no longer be drawn nor displayed by anyone.
+     *
+     * @param bitmap bitmap to reuse, ignored if null, immutable or recycled
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || !bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+        long bytes = getByteCount(bitmap);
+        if (bytes > mMaxBytes) {
+            return;
+        }
+        mLookup.set(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayList<Bitmap> bitmaps = mBuckets.get(mLookup);
+        if (bitmaps == null) {
+            bitmaps = new ArrayList<Bitmap>(2);
+            mBuckets.put(new Bucket().set(bitmap.getWidth(), bitmap.getHeight(),
+                    bitmap.getConfig()), bitmaps);
+        } else if (bitmaps.contains(bitmap)) {
+            return;
+        }
+        bitmaps.add(bitmap);
+        mBytes += bytes;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Drop pooled bitmaps as the system asks, see {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            // app is likely to be killed soon
+            clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimToSize(mMaxBytes / 2);
+        }
+    }
+
+    /**
+     * Drop every pooled bitmap.
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * @return number of bytes of the pooled bitmaps
+     */
+    public synchronized long getSize() {
+        return mBytes;
+    }
+
+    /**
+     * Evict least recently used bitmaps until the pool holds at most the given bytes.
+     */
+    private synchronized void trimToSize(long maxBytes) {
+        Iterator<Map.Entry<Bucket, ArrayList<Bitmap>>> buckets = mBuckets.entrySet().iterator();
+        while (mBytes > maxBytes && buckets.hasNext()) {
+            ArrayList<Bitmap> bitmaps = buckets.next().getValue();
+            while (mBytes > maxBytes && !bitmaps.isEmpty()) {
+                // not recycled, a forgotten reference may still draw it
+                mBytes -= getByteCount(bitmaps.remove(0));
+            }
+            if (bitmaps.isEmpty()) {
+                buckets.remove();
+            }
+        }
+    }
+
+    /**
+     * Take the smallest pooled bitmap having enough memory for the given size and config.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private Bitmap reconfigureLargeEnough(int width, int height, Bitmap.Config config) {
+        long needed = (long) width * height * bytesPerPixel(config);
+        ArrayList<Bitmap> best = null;
+        int bestIndex = -1;
+        for (ArrayList<Bitmap> bitmaps : mBuckets.values()) {
+            for (int i = 0; i < bitmaps.size(); i++) {
+                int bytes = bitmaps.get(i).getAllocationByteCount();
+                if (bytes >= needed && (best == null
+                        || bytes < best.get(bestIndex).getAllocationByteCount())) {
+                    best = bitmaps;
+                    bestIndex = i;
+                }
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        Bitmap bitmap = best.remove(bestIndex);
+        if (best.isEmpty()) {
+            Iterator<ArrayList<Bitmap>> buckets = mBuckets.values().iterator();
+            while (buckets.hasNext()) {
+                if (buckets.next() == best) {
+                    buckets.remove();
+                }
+            }
+        }
+        try {
+            // allocation byte count doesn't change, so the caller accounts for it as usual
+            bitmap.reconfigure(width, height, config);
+            return bitmap;
+        } catch (IllegalArgumentException e) {
+            // config not supported, the bitmap is dropped
+            mBytes -= bitmap.getAllocationByteCount();
+            return null;
+        }
+    }
+
+    /**
+     * Bytes taken by a pixel, 4 for an unknown config.
+     */
+    @SuppressWarnings("deprecation") // ARGB_4444 bitmaps may still be given back to the pool
+    static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static long getByteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * Size and config of the bitmaps of a group.
+     */
+    private static final class Bucket {
+
+        private int mWidth, mHeight;
+        private Bitmap.Config mConfig;
+
+        Bucket set(int width, int height, Bitmap.Config config) {
+            mWidth = width;
+            mHeight = height;
+            mConfig = config;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Bucket)) {
+                return false;
+            }
+            Bucket bucket = (Bucket) o;
+            return mWidth == bucket.mWidth && mHeight == bucket.mHeight
+                    && mConfig == bucket.mConfig;
+        }
+
+        @Override
+        public int hashCode() {
+            return (mWidth * 31 + mHeight) * 31 + (mConfig != null ? mConfig.hashCode() : 0);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package bakerj.backgroundblurpopupwindow;
+
+import android.graphics.Bitmap;
+
+/**
+ * Way of blurring a bitmap the engine can delegate to.
+ * <p/>
+ * Radius always has the meaning ScriptIntrinsicBlur gives it, a gaussian of standard deviation
+ * {@link BlurAlgorithms#radiusToSigma(float)}, so that every algorithm gives the same visual
+ * result for a given radius. Implementations keep their buffers between two blurs and aren't
+ * thread safe.
+ */
+public interface BlurAlgorithm {
+
+    /**
+     * Name of the algorithm, used in logs and to tell blurred backgrounds apart.
+     *
+     * @return name of the algorithm
+     */
+    String getName();
+
+    /**
+     * Format bitmaps should be in to be blurred without any conversion.
+     *
+     * @return preferred bitmap config
+     */
+    Bitmap.Config getPreferredConfig();
+
+    /**
+     * Tell whether the algorithm is able to blur with the given radius.
+     *
+     * @param radius blur radius
+     * @return true if the blur would be close enough to the wanted one
+     */
+    boolean supportsRadius(int radius);
+
+    /**
+     * Estimate how long blurring a bitmap would take, only compared between algorithms.
+     *
+     * @param width  bitmap width
+     * @param height bitmap height
+     * @param radius blur radius
+     * @return estimated duration, in nanoseconds
+     */
+    long estimateCost(int width, int height, int radius);
+
+    /**
+     * blur a given bitmap in place
+     *
+     * @param bitmap       mutable bitmap to blur
+     * @param radius       blur radius
+     * @param cancellation token checked while blurring, may be null
+     * @return blurred bitmap, null if radius is below 1 or blur failed
+     * @throws java.util.concurrent.CancellationException if cancelled, bitmap content is then
+     *                                                    undefined
+     */
+    Bitmap blur(Bitmap bitmap, int radius, BlurCancellation cancellation);
+
+    /**
+     * Number of bytes the last blur allocated.
+     *
+     * @return bytes allocated, buffers kept from previous blurs aside
+     */
+    long getAllocatedBytes();
+
+    /**
+     * Free every buffer kept between two blurs.
+     */
+    void release();
+}
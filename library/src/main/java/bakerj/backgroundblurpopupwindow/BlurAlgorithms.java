@@ -0,0 +1,142 @@
+package bakerj.backgroundblurpopupwindow;
+
+/**
+ * Helpers shared by {@link BlurAlgorithm} implementations.
+ */
+public final class BlurAlgorithms {
+
+    /**
+     * Java heap taken by the buffers of the algorithms working on pixel arrays, in bytes per
+     * pixel: a copy of the pixels, and per channel sums or a transposed copy.
+     */
+    public static final int PIXEL_WORKING_BYTES = 20;
+
+    /**
+     * non instantiable helper
+     */
+    private BlurAlgorithms() {
+
+    }
+
+    /**
+     * Standard deviation of the gaussian matching a blur radius, as ScriptIntrinsicBlur does.
+     *
+     * @param radius blur radius
+     * @return standard deviation, in pixels
+     */
+    public static float radiusToSigma(float radius) {
+        return radius * 0.4f + 0.6f;
+    }
+
+    /**
+     * Blur radius matching a gaussian standard deviation.
+     *
+     * @param sigma standard deviation, in pixels
+     * @return blur radius
+     */
+    public static float sigmaToRadius(float sigma) {
+        return (sigma - 0.6f) / 0.4f;
+    }
+
+    /**
+     * Distance beyond which a pixel has no visible influence on a blurred one, three standard
+     * deviations, which is at least the radius.
+     *
+     * @param radius blur radius
+     * @return distance, in pixels
+     */
+    public static int kernelExtent(int radius) {
+        return (int) Math.ceil(3 * radiusToSigma(radius));
+    }
+
+    /**
+     * Whether a pixel blurred by an algorithm only depends on the pixels within
+     * {@link #kernelExtent(int)}, blurring a part of a picture then giving the same pixels as
+     * blurring the whole picture farther than that from the edges of the part.
+     * <p/>
+     * Kawase passes and RenderScript don't, their result depending on the size of the picture.
+     *
+     * @param algorithm algorithm to check
+     * @return true for the stack, box and gaussian blurs
+     */
+    public static boolean hasLocalSupport(BlurAlgorithm algorithm) {
+        return algorithm instanceof StackBlurAlgorithm || algorithm instanceof BoxBlurAlgorithm
+                || algorithm instanceof GaussianBlurAlgorithm;
+    }
+
+    /**
+     * Expected duration of a blur, the estimate of the algorithm being corrected with the
+     * durations measured so far in this process.
+     *
+     * @param algorithm algorithm which would blur
+     * @param width     bitmap width
+     * @param height    bitmap height
+     * @param radius    blur radius
+     * @return expected duration, in nanoseconds
+     */
+    public static long predictCost(BlurAlgorithm algorithm, int width, int height, int radius) {
+        return BlurTimings.predict(algorithm.getName(),
+                algorithm.estimateCost(width, height, radius));
+    }
+
+    /**
+     * Estimate the java heap a blur needs, the bitmap included, as if no buffer were kept from
+     * a previous blur.
+     *
+     * @param algorithm algorithm which would blur
+     * @param width     bitmap width
+     * @param height    bitmap height
+     * @return bytes needed
+     */
+    public static long estimateHeapBytes(BlurAlgorithm algorithm, int width, int height) {
+        long pixels = (long) width * height;
+        long bytes = pixels * BitmapPool.bytesPerPixel(algorithm.getPreferredConfig());
+        // RenderScript works in native allocations
+        if (!(algorithm instanceof RenderScriptBlurAlgorithm)) {
+            bytes += pixels * PIXEL_WORKING_BYTES;
+        }
+        return bytes;
+    }
+
+    /**
+     * Pick the cheapest algorithm able to blur a bitmap of the given size with a radius.
+     * <p/>
+     * Costs are compared once corrected by {@link #predictCost(BlurAlgorithm, int, int, int)}.
+     *
+     * @param algorithms candidates, null entries are ignored
+     * @param width      bitmap width
+     * @param height     bitmap height
+     * @param radius     blur radius
+     * @return cheapest candidate supporting radius, null if none does
+     */
+    public static BlurAlgorithm cheapest(BlurAlgorithm[] algorithms, int width, int height,
+                                         int radius) {
+        return cheapest(algorithms, width, height, radius, Long.MAX_VALUE);
+    }
+
+    /**
+     * Pick the cheapest algorithm able to blur a bitmap of the given size with a radius,
+     * within a heap budget.
+     *
+     * @param maxHeapBytes largest {@link #estimateHeapBytes(BlurAlgorithm, int, int)} allowed
+     * @return cheapest candidate supporting radius and fitting in the heap, null if none does
+     * @see #cheapest(BlurAlgorithm[], int, int, int)
+     */
+    public static BlurAlgorithm cheapest(BlurAlgorithm[] algorithms, int width, int height,
+                                         int radius, long maxHeapBytes) {
+        BlurAlgorithm cheapest = null;
+        long cheapestCost = Long.MAX_VALUE;
+        for (BlurAlgorithm algorithm : algorithms) {
+            if (algorithm == null || !algorithm.supportsRadius(radius)
+                    || estimateHeapBytes(algorithm, width, height) > maxHeapBytes) {
+                continue;
+            }
+            long cost = predictCost(algorithm, width, height, radius);
+            if (cost < cheapestCost) {
+                cheapest = algorithm;
+                cheapestCost = cost;
+            }
+        }
+        return cheapest;
+    }
+}
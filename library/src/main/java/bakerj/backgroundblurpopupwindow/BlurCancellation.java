@@ -0,0 +1,58 @@
+package bakerj.backgroundblurpopupwindow;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Tell a blur running on another thread that its result is no longer wanted.
+ * <p/>
+ * Kernels check it between bands of rows or columns and abort by throwing a
+ * {@link CancellationException}, their buffers staying in the context or algorithm they came
+ * from so that the next blur reuses them.
+ */
+public final class BlurCancellation {
+
+    /**
+     * Number of rows or columns blurred between two checks.
+     */
+    public static final int BAND_SIZE = 16;
+
+    private volatile boolean mCancelled;
+
+    /**
+     * Ask the blur to stop as soon as possible.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * @return true if the blur has been asked to stop
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Abort the blur if it has been asked to stop.
+     *
+     * @throws CancellationException if cancelled
+     */
+    public void throwIfCancelled() {
+        if (mCancelled) {
+            throw new CancellationException("Blur cancelled");
+        }
+    }
+
+    /**
+     * Abort the blur if it has been asked to stop and a band starts at the given line.
+     *
+     * @param cancellation token of the blur, may be null
+     * @param line         index of the row or column about to be blurred
+     * @throws CancellationException if cancelled
+     */
+    static void checkBand(BlurCancellation cancellation, int line) {
+        if (cancellation != null && line % BAND_SIZE == 0) {
+            cancellation.throwIfCancelled();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package bakerj.backgroundblurpopupwindow;
+
+import android.graphics.Rect;
+
+/**
+ * Everything a blurred background depends on, used to tell whether a previous result can be
+ * shown again.
+ */
+final class BlurKey {
+
+    final Rect rect;
+    final int radius;
+    final float downScaleFactor;
+    final String backend;
+
+    /**
+     * Number of times the captured view hierarchy had been drawn when captured.
+     */
+    final int drawGeneration;
+
+    BlurKey(Rect rect, int radius, float downScaleFactor, String backend, int drawGeneration) {
+        this.rect = new Rect(rect);
+        this.radius = radius;
+        this.downScaleFactor = downScaleFactor;
+        this.backend = backend;
+        this.drawGeneration = drawGeneration;
+    }
+
+    /**
+     * Tell whether both keys describe the same blur, whatever happened to the view hierarchy.
+     */
+    boolean sameParameters(BlurKey other) {
+        return other != null && rect.equals(other.rect) && radius == other.radius
+                && Float.compare(downScaleFactor, other.downScaleFactor) == 0
+                && backend.equals(other.backend);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BlurKey)) {
+            return false;
+        }
+        BlurKey other = (BlurKey) o;
+        return drawGeneration == other.drawGeneration && sameParameters(other);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = rect.hashCode();
+        result = 31 * result + radius;
+        result = 31 * result + Float.floatToIntBits(downScaleFactor);
+        result = 31 * result + backend.hashCode();
+        result = 31 * result + drawGeneration;
+        return result;
+    }
+}
@@ -0,0 +1,153 @@
+package bakerj.backgroundblurpopupwindow;
+
+/**
+ * Cost of a blurred background, stage by stage.
+ * <p/>
+ * Durations are in nanoseconds. The background is cropped and down scaled while it is
+ * captured, by drawing the view through a scaled canvas, so their cost is part of
+ * {@link #getCaptureNs()} and {@link #getCropNs()} and {@link #getDownScaleNs()} are 0.
+ */
+public final class BlurMetrics {
+
+    long captureNs;
+    long blurNs;
+    long uploadNs;
+    long firstFrameNs;
+    String backend;
+    int sourceWidth, sourceHeight;
+    int width, height;
+    int radius;
+    float downScaleFactor;
+    long allocatedBytes;
+    boolean fromCache;
+
+    /**
+     * Time at which the blurred background has been handed to the view, used to compute
+     * {@link #firstFrameNs}.
+     */
+    long shownAtNs;
+
+    /**
+     * @return time spent drawing the background view into the capture bitmap, 0 if the
+     * blurred background came from the cache
+     */
+    public long getCaptureNs() {
+        return captureNs;
+    }
+
+    /**
+     * @return 0, cropping being done while capturing
+     */
+    public long getCropNs() {
+        return 0;
+    }
+
+    /**
+     * @return 0, down scaling being done while capturing
+     */
+    public long getDownScaleNs() {
+        return 0;
+    }
+
+    /**
+     * @return time spent blurring, 0 if the blurred background came from the cache
+     */
+    public long getBlurNs() {
+        return blurNs;
+    }
+
+    /**
+     * @return time spent in the first draw of the blurred bitmap, which uploads it when
+     * drawing in software
+     */
+    public long getUploadNs() {
+        return uploadNs;
+    }
+
+    /**
+     * @return time between the blurred bitmap being handed to the view and the end of its
+     * first draw
+     */
+    public long getFirstFrameNs() {
+        return firstFrameNs;
+    }
+
+    /**
+     * @return name of the {@link BlurAlgorithm} which blurred
+     */
+    public String getBackend() {
+        return backend;
+    }
+
+    /**
+     * @return width of the blurred area of the screen
+     */
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    /**
+     * @return height of the blurred area of the screen
+     */
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    /**
+     * @return width of the blurred bitmap
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return height of the blurred bitmap
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return radius the bitmap has been blurred with
+     */
+    public int getRadius() {
+        return radius;
+    }
+
+    /**
+     * @return factor the blurred area has been down scaled by
+     */
+    public float getDownScaleFactor() {
+        return downScaleFactor;
+    }
+
+    /**
+     * @return bytes allocated to capture and blur, buffers kept from previous blurs aside
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return true if the last blurred background has been shown again without blurring
+     */
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
+    @Override
+    public String toString() {
+        return "BlurMetrics{backend=" + backend
+                + ", source=" + sourceWidth + "x" + sourceHeight
+                + ", size=" + width + "x" + height
+                + ", radius=" + radius
+                + ", downScaleFactor=" + downScaleFactor
+                + ", fromCache=" + fromCache
+                + ", captureNs=" + captureNs
+                + ", blurNs=" + blurNs
+                + ", uploadNs=" + uploadNs
+                + ", firstFrameNs=" + firstFrameNs
+                + ", allocatedBytes=" + allocatedBytes
+                + "}";
+    }
+}
@@ -0,0 +1,14 @@
+package bakerj.backgroundblurpopupwindow;
+
+/**
+ * Listener notified of the cost of every blurred background shown.
+ */
+public interface BlurMetricsListener {
+
+    /**
+     * Called on ui thread once a blurred background has been drawn for the first time.
+     *
+     * @param metrics what the blurred background cost
+     */
+    void onBlurMetrics(BlurMetrics metrics);
+}
@@ -9,19 +9,28 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.RectF;
-import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.TransitionDrawable;
 import android.os.AsyncTask;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.TypedValue;
-import android.view.Gravity;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.animation.AccelerateInterpolator;
 import android.view.animation.LinearInterpolator;
-import android.widget.FrameLayout;
 import android.widget.ImageView;
 
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
 
 /**
  * Encapsulate the whole behaviour to provide a blur effect on a DialogFragment.
@@ -63,6 +72,68 @@ public class BlurPopupEngine {
      */
     static final boolean DEFAULT_USE_RENDERSCRIPT = false;
 
+    /**
+     * Default progressive blur policy.
+     */
+    static final boolean DEFAULT_PROGRESSIVE_BLUR = false;
+
+    /**
+     * Default live blur policy.
+     */
+    static final boolean DEFAULT_LIVE_BLUR = false;
+
+    /**
+     * Default frame rate limit of live blur.
+     */
+    static final int DEFAULT_LIVE_BLUR_MAX_FPS = 30;
+
+    /**
+     * Time during which the result of a speculative blur can be shown, counted from the touch
+     * which started it, in milli.
+     */
+    static final int SPECULATIVE_BLUR_VALIDITY = 1500;
+
+    /**
+     * Default latency budget, none.
+     */
+    static final int DEFAULT_BLUR_LATENCY_BUDGET = 0;
+
+    /**
+     * Default fallback color, none.
+     */
+    static final int DEFAULT_FALLBACK_COLOR = Color.TRANSPARENT;
+
+    /**
+     * Down scale factors tried, from the best quality to the fastest, when a latency budget is
+     * set.
+     */
+    private static final float[] ADAPTIVE_DOWN_SCALE_FACTORS =
+            {1f, 1.5f, 2f, 3f, 4f, 6f, 8f, 12f, 16f};
+
+    /**
+     * Largest part of the capture, once grown by the blur around the changes, for which live
+     * blur patches the displayed background rather than blurring the whole capture again.
+     */
+    private static final float MAX_PATCH_AREA_RATIO = 0.5f;
+
+    /**
+     * Share of the free heap a blur may take, on most devices and on low ram ones.
+     */
+    private static final float HEAP_BUDGET_RATIO = 0.5f;
+    private static final float LOW_RAM_HEAP_BUDGET_RATIO = 0.25f;
+
+    /**
+     * Largest down scale factor a blur is reduced to so that it fits in the heap, beyond it
+     * the fallback color is shown instead.
+     */
+    private static final float MAX_HEAP_DOWN_SCALE_FACTOR = 32f;
+
+    /**
+     * Down scale factor of the preview shown while the background is being blurred, relative
+     * to the full resolution.
+     */
+    static final float PREVIEW_DOWN_SCALE_FACTOR = 16.0f;
+
     /**
      * Log cat
      */
@@ -70,20 +141,32 @@ public class BlurPopupEngine {
     private Context mContext;
     private View mBlurView;
     private Rect clipRect = new Rect();
+
+    /**
+     * Area actually captured, clipRect with a margin so that its edges are blurred with the
+     * pixels around them. Only used on ui thread.
+     */
+    private final Rect mCaptureRect = new Rect();
     /**
      * Image view used to display blurred background.
      */
     private ImageView mBlurredBackgroundView;
 
     /**
-     * Layout params used to add blurred background.
+     * Task used to capture screen and blur it.
      */
-    private FrameLayout.LayoutParams mBlurredBackgroundLayoutParams;
+    private BlurAsyncTask mBluringTask;
 
     /**
-     * Task used to capture screen and blur it.
+     * Executor blurs run on, null to use the one of the service.
      */
-    private BlurAsyncTask mBluringTask;
+    private Executor mBlurExecutor;
+
+    /**
+     * Latest blur executor in use and its view dropping only the blurs of this engine.
+     */
+    private LatestBlurExecutor mLatestBlurExecutor;
+    private Executor mOwnBlurExecutor;
 
     /**
      * Used to enable or disable debug mod.
@@ -101,6 +184,32 @@ public class BlurPopupEngine {
      */
     private int mBlurRadius = DEFAULT_BLUR_RADIUS;
 
+    /**
+     * Duration the blur should fit in, in milli, 0 to always use the given down scale factor
+     * and radius.
+     */
+    private int mBlurLatencyBudget = DEFAULT_BLUR_LATENCY_BUDGET;
+
+    /**
+     * Down scale factor and radius actually used, which only differ from the given ones when
+     * a latency budget is set. Only used on ui thread.
+     */
+    private float mEffectiveDownScaleFactor = DEFAULT_BLUR_DOWN_SCALE_FACTOR;
+    private int mEffectiveBlurRadius = DEFAULT_BLUR_RADIUS;
+
+    /**
+     * Java heap the blur may take, and whether even the largest down scale factor doesn't fit
+     * in it. Only used on ui thread.
+     */
+    private long mHeapBudget = Long.MAX_VALUE;
+    private boolean mHeapExhausted;
+    private final boolean mLowRamDevice;
+
+    /**
+     * Color shown instead of the blurred background when there isn't enough memory to blur.
+     */
+    private int mFallbackColor = DEFAULT_FALLBACK_COLOR;
+
     /**
      * Duration used to animate in and out the blurred image.
      * <p/>
@@ -113,28 +222,452 @@ public class BlurPopupEngine {
      */
     private boolean mUseRenderScript;
 
+    /**
+     * Boolean used to know if a cheap preview should be shown before the blurred background.
+     */
+    private boolean mProgressiveBlur = DEFAULT_PROGRESSIVE_BLUR;
+
+    /**
+     * Algorithms the cheapest one is picked from, null to only use the one selected by
+     * {@link #mUseRenderScript}.
+     */
+    private BlurAlgorithm[] mBlurAlgorithms;
+
+    /**
+     * Listener notified of the cost of each blurred background, may be null.
+     */
+    private BlurMetricsListener mBlurMetricsListener;
+
+    /**
+     * Resources shared with the other popups of the activity, or owned by this engine alone.
+     */
+    private final BlurService mService;
+
+    /**
+     * Fast blur of the service, kept so that showing the popup again doesn't allocate, and
+     * used whenever no other algorithm can blur.
+     */
+    private final StackBlurAlgorithm mStackBlurAlgorithm;
+
+    /**
+     * Pool of the service, every bitmap of the pipeline comes from and goes back to it.
+     */
+    private final BitmapPool mBitmapPool;
+
+    /**
+     * Show the blurred background of another popup once it is done.
+     */
+    private final BlurService.FrameCallback mFrameCallback = new BlurService.FrameCallback() {
+        @Override
+        public void onFrame(BlurKey key, Bitmap bitmap, Rect crop) {
+            if (bitmap == null) {
+                startBlur(false, false);
+                return;
+            }
+            mCachedBitmap = bitmap;
+            mCachedCrop = crop;
+            mCachedKey = key;
+            BlurMetrics metrics = createMetrics(key, bitmap);
+            metrics.fromCache = true;
+            showBlurredBackground(bitmap, crop, metrics);
+        }
+    };
+
+    /**
+     * Bitmaps the background is captured and blurred in, reused while their size doesn't
+     * change. Live blur uses both, one being displayed while the other one is blurred.
+     */
+    private final Bitmap[] mCaptureBitmaps = new Bitmap[2];
+
+    /**
+     * Bytes allocated by the last capture and by the last preview.
+     */
+    private long mCaptureAllocatedBytes;
+    private long mPreviewAllocatedBytes;
+    private final Canvas mCaptureCanvas = new Canvas();
+
+    /**
+     * Incremented each time the popup is shown or dismissed, results of blurs started before
+     * are never shown. Only used on ui thread.
+     */
+    private int mRequestGeneration;
+
+    /**
+     * Tasks which captured the background and haven't finished yet, only used on ui thread.
+     */
+    private int mRunningTasks;
+
+    /**
+     * Prewarms queued or running on the blur executor, only used on ui thread.
+     */
+    private int mRunningPrewarms;
+
+    /**
+     * True once destroyed, until the blurs still running are over and what they use has been
+     * released.
+     */
+    private boolean mReleasePending;
+
+    /**
+     * True once released, the service being released exactly once per engine.
+     */
+    private boolean mReleased;
+
+    /**
+     * Tells the ui thread a prewarm is over.
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Blur a new frame of live blur whenever the blurred view hierarchy draws.
+     */
+    private final ViewTreeObserver.OnPreDrawListener mOnPreDrawListener =
+            new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    scheduleLiveFrame();
+                    return true;
+                }
+            };
+
+    /**
+     * Boolean used to know if background should be blurred again whenever it is drawn.
+     */
+    private boolean mLiveBlur = DEFAULT_LIVE_BLUR;
+    private int mLiveBlurMaxFps = DEFAULT_LIVE_BLUR_MAX_FPS;
+
+    /**
+     * Live blur state, only used on ui thread: whether the popup is showing, whether a frame
+     * is scheduled, whether a frame has been dropped while blurring and when the last frame
+     * started.
+     */
+    private boolean mLiveActive;
+    private boolean mLiveFrameScheduled;
+    private boolean mLiveFramePending;
+    private long mLastLiveFrameMs;
+
+    /**
+     * Blur a new frame of the background, unless the previous one is still being blurred.
+     */
+    private final Runnable mLiveFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mLiveFrameScheduled = false;
+            if (!mLiveActive) {
+                return;
+            }
+            if (mRunningTasks > 0) {
+                // drop the frame, a single one will be blurred once the running blur is done
+                mLiveFramePending = true;
+                return;
+            }
+            mLastLiveFrameMs = SystemClock.uptimeMillis();
+            startBlur(true, false);
+        }
+    };
+
+    /**
+     * Pixels of the capture the displayed live background has been blurred from, compared
+     * with each new capture, and the buffer new captures are read in. Only used by one task at
+     * a time.
+     */
+    private int[] mLiveSourcePixels;
+    private int[] mLiveCapturePixels;
+
+    /**
+     * Blurred background mLiveSourcePixels has been captured for, only used on ui thread.
+     */
+    private Bitmap mLiveSourceBitmap;
+
+    /**
+     * Area around the changes, blurred on its own and copied into the displayed background.
+     * Only used by one task at a time.
+     */
+    private Bitmap mPatchBitmap;
+    private int[] mPatchPixels;
+
+    /**
+     * When the last speculative blur started, and whether the cached background is its result
+     * and hasn't been shown yet. Only used on ui thread.
+     */
+    private long mSpeculationStartMs;
+    private boolean mSpeculativeResult;
+
+    /**
+     * Last blurred background and what it has been computed from.
+     */
+    private Bitmap mCachedBitmap;
+    private Rect mCachedCrop;
+    private BlurKey mCachedKey;
+
+    /**
+     * View opening the popup, whose own draws don't invalidate the last blurred background.
+     */
+    private WeakReference<View> mAnchorView;
+
+    /**
+     * Preview of progressive blur, with its own scratch buffers since the full blur may be
+     * running at the same time.
+     */
+    private Bitmap mPreviewBitmap;
+    private final Canvas mPreviewCanvas = new Canvas();
+    private final Paint mPreviewPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mPreviewRect = new Rect();
+    private final StackBlurContext mPreviewBlurContext = new StackBlurContext();
 
     /**
      * Constructor.
      */
     public BlurPopupEngine(int animDuration, Context context, View blurView, ImageView
             blurHolderView) {
+        this(animDuration, context, blurView, blurHolderView,
+                new BlurService(context, blurView));
+    }
+
+    /**
+     * Constructor of an engine sharing its resources with the other popups of an activity.
+     *
+     * @param service service obtained for the activity of blurView, released with the engine.
+     */
+    public BlurPopupEngine(int animDuration, Context context, View blurView, ImageView
+            blurHolderView, BlurService service) {
         mAnimationDuration = animDuration;
         mContext = context;
         mBlurView = blurView;
         mBlurredBackgroundView = blurHolderView;
+        mService = service;
+        mStackBlurAlgorithm = service.getStackBlurAlgorithm();
+        mBitmapPool = service.getBitmapPool();
+        mLowRamDevice = Utils.isLowRamDevice(context);
+        mBlurView.getViewTreeObserver().addOnPreDrawListener(mOnPreDrawListener);
     }
 
     /**
      * Resume the engine.
+     * <p/>
+     * If nothing has been drawn since the last blur and its parameters haven't changed, the
+     * last blurred background is shown again instead of blurring a new one. Draws only
+     * changing the anchor, see {@link #setAnchorView(View)}, don't count. The result of a
+     * recent speculative blur with the same parameters is used even if the background has
+     * been drawn since.
      *
      * @param retainedInstance use getRetainInstance.
      */
     public void onResume(boolean retainedInstance) {
         if (mBlurredBackgroundView == null || retainedInstance) {
-            mBluringTask = new BlurAsyncTask();
-            mBluringTask.execute();
+            mLiveActive = mLiveBlur;
+            adaptQuality();
+            if (mHeapExhausted) {
+                // not even the smallest blur fits in memory
+                cancelBlur();
+                mLiveActive = false;
+                showFallbackColor();
+                return;
+            }
+            BlurKey key = createKey();
+            boolean speculated = SystemClock.uptimeMillis() - mSpeculationStartMs
+                    <= SPECULATIVE_BLUR_VALIDITY;
+            if (speculated && mBluringTask != null && mBluringTask.isSpeculating()
+                    && key.sameParameters(mBluringTask.mKey)) {
+                // speculative blur still running, show its result once done
+                mRequestGeneration++;
+                mBluringTask.adopt(mRequestGeneration);
+                return;
+            }
+            // any other blur still running is superseded
+            cancelBlur();
+            if (mCachedBitmap != null && (key.equals(mCachedKey)
+                    || speculated && mSpeculativeResult && key.sameParameters(mCachedKey))) {
+                mSpeculativeResult = false;
+                BlurMetrics metrics = createMetrics(mCachedKey, mCachedBitmap);
+                metrics.fromCache = true;
+                showBlurredBackground(mCachedBitmap, mCachedCrop, metrics);
+                return;
+            }
+            Bitmap shared = mService.takeFrame(this, key);
+            if (shared != null) {
+                // another popup of the activity has just blurred the same background
+                mFrameCallback.onFrame(mService.getFrameKey(), shared, mService.getFrameCrop());
+                return;
+            }
+            if (mService.joinPending(key, mFrameCallback)) {
+                // another popup is blurring the same background, show its result once done
+                return;
+            }
+            startBlur(false, false);
+        }
+    }
+
+    /**
+     * Set the view which opens the popup, so that drawing its pressed state doesn't prevent
+     * showing the last blurred background again.
+     * <p/>
+     * Draws of the activity only redrawing the anchor and its descendants aren't counted as
+     * changes of the background, since Honeycomb. Any other view drawn along with it still
+     * makes the next popup blur again.
+     * <p/>
+     * Must be called on ui thread.
+     *
+     * @param anchor view opening the popup, only weakly referenced, null to forget it
+     */
+    public void setAnchorView(View anchor) {
+        View previous = mAnchorView != null ? mAnchorView.get() : null;
+        if (previous == anchor || mContext == null) {
+            return;
+        }
+        if (previous != null) {
+            mService.removeAnchor(previous);
+        }
+        mAnchorView = null;
+        if (anchor != null) {
+            mService.addAnchor(anchor);
+            mAnchorView = new WeakReference<View>(anchor);
+        }
+    }
+
+    /**
+     * Start blurring the background before the popup is shown, typically as soon as the view
+     * which opens it is pressed, which is a good hundred milli before the click.
+     * <p/>
+     * Result is kept until {@link #onResume(boolean)} shows it, provided the blur rect
+     * hasn't changed, or dropped after {@link #SPECULATIVE_BLUR_VALIDITY}. Does nothing while
+     * another blur is running.
+     * <p/>
+     * Must be called on ui thread, once the blur rect of the popup is set.
+     */
+    public void startSpeculativeBlur() {
+        if (mContext == null || mRunningTasks > 0 || mLiveActive) {
+            return;
+        }
+        mSpeculationStartMs = SystemClock.uptimeMillis();
+        mSpeculativeResult = false;
+        adaptQuality();
+        if (!mHeapExhausted) {
+            startBlur(false, true);
+        }
+    }
+
+    /**
+     * Drop the speculative blur, for instance when the gesture which started it is cancelled.
+     * <p/>
+     * Must be called on ui thread.
+     */
+    public void cancelSpeculativeBlur() {
+        mSpeculationStartMs = 0;
+        mSpeculativeResult = false;
+        if (mBluringTask != null && mBluringTask.isSpeculating()) {
+            cancelBlur();
+        }
+    }
+
+    /**
+     * Warm up everything the first blur needs, out of ui thread, so that it is as fast as the
+     * next ones.
+     * <p/>
+     * A bitmap as large as the whole background, once down scaled, is blurred by every
+     * algorithm which may be used. This loads and compiles their code, grows their buffers to
+     * the largest size they will need, builds the lookup tables of the radius and creates the
+     * RenderScript context if needed. Does nothing while a blur is running.
+     * <p/>
+     * Must be called on ui thread.
+     */
+    public void prewarm() {
+        if (mContext == null || mRunningTasks > 0) {
+            return;
+        }
+        int viewWidth = mBlurView.getWidth();
+        int viewHeight = mBlurView.getHeight();
+        if (viewWidth == 0 || viewHeight == 0) {
+            // not laid out yet, the background is at most as large as the screen
+            viewWidth = mContext.getResources().getDisplayMetrics().widthPixels;
+            viewHeight = mContext.getResources().getDisplayMetrics().heightPixels;
+        }
+        final int width = Math.max(1, (int) Math.ceil(viewWidth / mDownScaleFactor));
+        final int height = Math.max(1, (int) Math.ceil(viewHeight / mDownScaleFactor));
+        final int radius = Math.max(1, mBlurRadius);
+        final BlurAlgorithm[] algorithms = mBlurAlgorithms != null ? mBlurAlgorithms.clone()
+                : new BlurAlgorithm[]{mUseRenderScript ? getRenderScriptAlgorithm() : null};
+        mRunningPrewarms++;
+        // a future, so that the engine hears about it even if the executor drops it
+        getBlurExecutor().execute(new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                long startMs = System.currentTimeMillis();
+                Bitmap bitmap = null;
+                for (BlurAlgorithm algorithm : algorithms) {
+                    if (algorithm != null) {
+                        bitmap = prewarm(algorithm, bitmap, width, height, radius);
+                    }
+                }
+                // fast blur is always used when other algorithms fail
+                bitmap = prewarm(mStackBlurAlgorithm, bitmap, width, height, radius);
+                // left for the first capture
+                mBitmapPool.put(bitmap);
+                if (mDebugEnable) {
+                    Log.d(TAG, "Prewarmed " + width + "x" + height + " in "
+                            + (System.currentTimeMillis() - startMs) + " ms");
+                }
+            }
+        }, null) {
+            @Override
+            protected void done() {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mRunningPrewarms--;
+                        releaseIfIdle();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Prewarm once the ui thread has nothing left to do, for instance once the activity is
+     * displayed.
+     * <p/>
+     * Must be called on ui thread.
+     *
+     * @see #prewarm()
+     */
+    public void prewarmWhenIdle() {
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                prewarm();
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Blur a blank bitmap with the given algorithm, ignoring failures since the real blur
+     * falls back on fast blur.
+     * <p/>
+     * Timings aren't recorded, a cold blur being far from the usual one.
+     *
+     * @param bitmap bitmap of a previous prewarm, reused if its config matches
+     * @return bitmap blurred, to be put back into the pool
+     */
+    private Bitmap prewarm(BlurAlgorithm algorithm, Bitmap bitmap, int width, int height,
+                           int radius) {
+        try {
+            if (bitmap == null || bitmap.getConfig() != algorithm.getPreferredConfig()) {
+                mBitmapPool.put(bitmap);
+                bitmap = mBitmapPool.get(width, height, algorithm.getPreferredConfig());
+            }
+            if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(width, height, algorithm.getPreferredConfig());
+            }
+            synchronized (mService.getBlurLock()) {
+                algorithm.blur(bitmap, radius, null);
+            }
+        } catch (RuntimeException e) {
+            if (mDebugEnable) {
+                Log.d(TAG, "Prewarm of " + algorithm.getName() + " failed", e);
+            }
         }
+        return bitmap;
     }
 
     /**
@@ -145,9 +678,8 @@ public class BlurPopupEngine {
         //remove blurred background and clear memory, could be null if dismissed before blur effect
         //processing ends
         //cancel async task
-        if (mBluringTask != null) {
-            mBluringTask.cancel(true);
-        }
+        cancelBlur();
+        stopLiveBlur();
         if (mBlurredBackgroundView != null) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
                 mBlurredBackgroundView
@@ -175,11 +707,59 @@ public class BlurPopupEngine {
      * Must be linked to the original lifecycle.
      */
     public void onDestroy() {
-        if (mBluringTask != null) {
-            mBluringTask.cancel(true);
+        setAnchorView(null);
+        cancelBlur();
+        stopLiveBlur();
+        ViewTreeObserver observer = mBlurView.getViewTreeObserver();
+        if (observer.isAlive()) {
+            observer.removeOnPreDrawListener(mOnPreDrawListener);
         }
+        mCachedBitmap = null;
+        mCachedCrop = null;
+        mCachedKey = null;
         mBluringTask = null;
         mContext = null;
+        // a cancelled blur only stops at the end of a band, it keeps its buffers until then
+        mReleasePending = !mReleased;
+        releaseIfIdle();
+    }
+
+    /**
+     * Release what blurs use once the engine is destroyed and none of them is running any
+     * more.
+     * <p/>
+     * Must be called on ui thread.
+     */
+    private void releaseIfIdle() {
+        if (!mReleasePending || mRunningTasks > 0 || mRunningPrewarms > 0) {
+            return;
+        }
+        mReleasePending = false;
+        mReleased = true;
+        // left for the other popups of the activity, unless shown by them
+        for (Bitmap bitmap : mCaptureBitmaps) {
+            if (bitmap != null && !mService.isLent(bitmap)) {
+                mService.forgetFrame(bitmap);
+                mBitmapPool.put(bitmap);
+            }
+        }
+        mBitmapPool.put(mPreviewBitmap);
+        mBitmapPool.put(mPatchBitmap);
+        mPreviewBitmap = null;
+        mPreviewBlurContext.release();
+        if (mBlurAlgorithms != null) {
+            for (BlurAlgorithm algorithm : mBlurAlgorithms) {
+                algorithm.release();
+            }
+        }
+        // default algorithms, executor and pool are released with the service
+        mService.release();
+        mCaptureBitmaps[0] = mCaptureBitmaps[1] = null;
+        mLiveSourcePixels = null;
+        mLiveCapturePixels = null;
+        mLiveSourceBitmap = null;
+        mPatchBitmap = null;
+        mPatchPixels = null;
     }
 
     /**
@@ -234,6 +814,132 @@ public class BlurPopupEngine {
         mUseRenderScript = useRenderScript;
     }
 
+    /**
+     * Enable / disable live blur.
+     * <p/>
+     * By default live blur is set to
+     * {@link BlurPopupEngine#DEFAULT_LIVE_BLUR}
+     * <p/>
+     * When enabled, the background is captured and blurred again whenever it is drawn, for
+     * instance when it scrolls or plays an animation, at most
+     * {@link #setLiveBlurMaxFps(int)} times per second. Frames drawn while the previous one is
+     * still being blurred are dropped, only the last one being blurred afterward.
+     * <p/>
+     * Each capture is compared with the previous one and, when only a small area changed, only
+     * this area grown by the blur is blurred again and patched into the displayed background.
+     * This only applies to the stack, box and gaussian blurs, see
+     * {@link BlurAlgorithms#hasLocalSupport(BlurAlgorithm)}.
+     *
+     * @param live true to keep the blurred background up to date
+     */
+    public void setLiveBlur(boolean live) {
+        mLiveBlur = live;
+    }
+
+    /**
+     * Apply custom frame rate limit to live blur.
+     * <p/>
+     * By default frame rate limit is set to
+     * {@link BlurPopupEngine#DEFAULT_LIVE_BLUR_MAX_FPS}
+     *
+     * @param maxFps most blurred backgrounds shown per second, at least 1
+     */
+    public void setLiveBlurMaxFps(int maxFps) {
+        mLiveBlurMaxFps = Math.max(1, maxFps);
+    }
+
+    /**
+     * Set the duration the blur should fit in.
+     * <p/>
+     * By default latency budget is set to
+     * {@link BlurPopupEngine#DEFAULT_BLUR_LATENCY_BUDGET}
+     * <p/>
+     * When set, down scale factor and radius are chosen from the blur durations measured so
+     * far in the process, so that the blur is the sharpest one expected to fit in the budget.
+     * Radius is scaled with the down scale factor, so the apparent blur strength stays the one
+     * given by {@link #setBlurRadius(int)} and {@link #setDownScaleFactor(float)}.
+     *
+     * @param budgetMs duration of the blur, in milli, 0 to disable
+     */
+    public void setBlurLatencyBudget(int budgetMs) {
+        mBlurLatencyBudget = Math.max(0, budgetMs);
+    }
+
+    /**
+     * Set the color shown instead of the blurred background when there isn't enough memory
+     * to blur it.
+     * <p/>
+     * By default fallback color is set to
+     * {@link BlurPopupEngine#DEFAULT_FALLBACK_COLOR}
+     * <p/>
+     * Before each blur, the memory it needs is compared to the free heap, a smaller share of
+     * it being used on low ram devices. Blurs which don't fit are down scaled further or done
+     * by a lighter algorithm, and this color is shown when even that isn't enough or the blur
+     * runs out of memory anyway.
+     *
+     * @param color color shown, typically the dim color of the popup
+     */
+    public void setFallbackColor(int color) {
+        mFallbackColor = color;
+    }
+
+    /**
+     * Set the listener notified of the cost of each blurred background shown.
+     *
+     * @param listener listener called on ui thread, null to remove it
+     */
+    public void setBlurMetricsListener(BlurMetricsListener listener) {
+        mBlurMetricsListener = listener;
+    }
+
+    /**
+     * Set the algorithms used to blur.
+     * <p/>
+     * For each blur, the algorithm with the lowest estimated cost among the ones supporting the
+     * radius is used. By default only fast blur, or RenderScript if
+     * {@link #setUseRenderScript(boolean)} has been enabled, is used.
+     *
+     * @param algorithms candidate algorithms, none to go back to the default behaviour. They
+     *                   are released with the engine.
+     */
+    public void setBlurAlgorithms(BlurAlgorithm... algorithms) {
+        mBlurAlgorithms = algorithms != null && algorithms.length > 0 ? algorithms : null;
+    }
+
+    /**
+     * Set the executor blurs run on.
+     * <p/>
+     * By default blurs run on the {@link LatestBlurExecutor} of the {@link BlurService}, so
+     * they don't wait behind the other AsyncTasks of the app, and a blur waiting for the
+     * running one is dropped when the same popup requests a newer one. Ignored before
+     * Honeycomb, where AsyncTasks already run on a pool of threads.
+     * <p/>
+     * Engines sharing a service share its algorithms, so their blurs never run at the same
+     * time, whatever executor they are given. A {@link LatestBlurExecutor} given here is used through
+     * {@link LatestBlurExecutor#forOwner(Object)}, other executors must never drop blurs.
+     *
+     * @param executor executor running blurs one at a time, null to go back to the default
+     *                 one. It isn't shut down with the engine.
+     */
+    public void setBlurExecutor(Executor executor) {
+        mBlurExecutor = executor;
+    }
+
+    /**
+     * Enable / disable progressive blur.
+     * <p/>
+     * By default progressive blur is set to
+     * {@link BlurPopupEngine#DEFAULT_PROGRESSIVE_BLUR}
+     * <p/>
+     * When enabled, a heavily down scaled blur is shown as soon as the background is captured,
+     * then cross-faded into the full quality one once it is ready.
+     *
+     * @param progressive true to show a preview while blurring
+     */
+    public void setProgressiveBlur(boolean progressive) {
+        mProgressiveBlur = progressive;
+    }
+
     /**
      * Apply custom blur radius.
      * <p/>
@@ -255,80 +961,478 @@ public class BlurPopupEngine {
     }
 
     /**
-     * Blur the given bitmap and add it to the activity.
+     * Capture the background and start blurring it on the blur executor.
      *
-     * @param bkg  should be a bitmap of the background.
-     * @param view background view.
+     * @param live        true for a frame of live blur.
+     * @param speculative true if the popup isn't shown yet.
      */
-    private Bitmap blur(Bitmap bkg, View view) {
-        long startMs = System.currentTimeMillis();
-        //define layout params to the previous imageView in order to match its parent
-        mBlurredBackgroundLayoutParams = new FrameLayout.LayoutParams(
-                FrameLayout.LayoutParams.MATCH_PARENT,
-                FrameLayout.LayoutParams.MATCH_PARENT
-        );
-
-        //overlay used to build scaled preview and blur background
-        Bitmap overlay = null;
-
-        //add offset to the source boundaries since we don't want to blur actionBar pixels
-        Rect srcRect = new Rect(
-                0,
-                0,
-                bkg.getWidth(),
-                bkg.getHeight()
-        );
-
-        //in order to keep the same ratio as the one which will be used for rendering, also
-        //add the offset to the overlay.
-        double height = Math.ceil(bkg.getHeight() / mDownScaleFactor);
-        double width = Math.ceil((bkg.getWidth() * height
-                / bkg.getHeight()));
-
-        // Render script doesn't work with RGB_565
-        if (mUseRenderScript) {
-            overlay = Bitmap.createBitmap((int) width, (int) height, Bitmap.Config.ARGB_8888);
+    @SuppressLint("NewApi")
+    private void startBlur(boolean live, boolean speculative) {
+        mBluringTask = new BlurAsyncTask(live, speculative);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            mBluringTask.executeOnExecutor(getBlurExecutor());
         } else {
-            overlay = Bitmap.createBitmap((int) width, (int) height, Bitmap.Config.RGB_565);
+            mBluringTask.execute();
         }
-        try {
-            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
-                //add offset as top margin since actionBar height must also considered when we display
-                // the blurred background. Don't want to draw on the actionBar.
-                mBlurredBackgroundLayoutParams.gravity = Gravity.TOP;
-            }
-        } catch (NoClassDefFoundError e) {
-            // no dependency to appcompat, that means no additional top offset due to actionBar.
-            mBlurredBackgroundLayoutParams.setMargins(0, 0, 0, 0);
+    }
+
+    private Executor getBlurExecutor() {
+        Executor executor = mBlurExecutor != null ? mBlurExecutor : mService.getExecutor();
+        if (!(executor instanceof LatestBlurExecutor)) {
+            return executor;
         }
-        //scale and draw background view on the canvas overlay
-        Canvas canvas = new Canvas(overlay);
-        Paint paint = new Paint();
-        paint.setFlags(Paint.FILTER_BITMAP_FLAG);
+        // other popups sharing the executor never drop the blurs of this one
+        if (executor != mLatestBlurExecutor) {
+            mLatestBlurExecutor = (LatestBlurExecutor) executor;
+            mOwnBlurExecutor = mLatestBlurExecutor.forOwner(this);
+        }
+        return mOwnBlurExecutor;
+    }
 
-        //build drawing destination boundaries
-        final RectF destRect = new RectF(0, 0, overlay.getWidth(), overlay.getHeight());
+    /**
+     * Stop the running blur, if any, as soon as possible and make sure no blur started so far
+     * is shown.
+     */
+    private void cancelBlur() {
+        mRequestGeneration++;
+        mService.leavePending(mFrameCallback);
+        if (mBluringTask != null) {
+            mBluringTask.cancelBlur();
+        }
+    }
+
+    /**
+     * Schedule the blur of a new frame if live blur is running, no sooner than the frame rate
+     * limit allows. Frames scheduled in between are merged.
+     */
+    private void scheduleLiveFrame() {
+        if (!mLiveActive || mLiveFrameScheduled) {
+            return;
+        }
+        mLiveFrameScheduled = true;
+        long delay = mLastLiveFrameMs + 1000 / mLiveBlurMaxFps - SystemClock.uptimeMillis();
+        mBlurView.postDelayed(mLiveFrameRunnable, Math.max(0, delay));
+    }
 
-        //draw background from source area in source background to the destination area on the overlay
-        canvas.drawBitmap(bkg, srcRect, destRect, paint);
+    private void stopLiveBlur() {
+        mLiveActive = false;
+        mLiveFramePending = false;
+        if (mLiveFrameScheduled) {
+            mBlurView.removeCallbacks(mLiveFrameRunnable);
+            mLiveFrameScheduled = false;
+        }
+    }
 
-        //apply fast blur on overlay
-        if (mUseRenderScript) {
-            overlay = RenderScriptBlurHelper.doBlur(overlay, mBlurRadius, true, mContext);
+    /**
+     * Blur a tiny copy of the capture, cheap enough to be done on ui thread.
+     *
+     * @param capture down scaled capture of the background.
+     * @return blurred preview, null if the capture is already small enough.
+     */
+    private Bitmap blurPreview(Bitmap capture) {
+        mPreviewAllocatedBytes = 0;
+        float scale = mEffectiveDownScaleFactor / PREVIEW_DOWN_SCALE_FACTOR;
+        if (scale >= 1f) {
+            return null;
+        }
+        int width = Math.max(1, (int) Math.ceil(capture.getWidth() * scale));
+        int height = Math.max(1, (int) Math.ceil(capture.getHeight() * scale));
+        if (mPreviewBitmap == null || mPreviewBitmap.getWidth() != width
+                || mPreviewBitmap.getHeight() != height) {
+            mBitmapPool.put(mPreviewBitmap);
+            mPreviewBitmap = mBitmapPool.get(width, height, FastBlurHelper.PREFERRED_CONFIG);
+            if (mPreviewBitmap == null) {
+                mPreviewBitmap = Bitmap.createBitmap(width, height,
+                        FastBlurHelper.PREFERRED_CONFIG);
+                mPreviewAllocatedBytes = mPreviewBitmap.getRowBytes()
+                        * mPreviewBitmap.getHeight();
+            }
         } else {
-            overlay = FastBlurHelper.doBlur(overlay, mBlurRadius, true);
+            mPreviewBitmap.eraseColor(Color.TRANSPARENT);
+        }
+        mPreviewCanvas.setBitmap(mPreviewBitmap);
+        mPreviewRect.set(0, 0, width, height);
+        mPreviewCanvas.drawBitmap(capture, null, mPreviewRect, mPreviewPaint);
+        // same apparent strength as the full blur
+        int radius = Math.max(1, Math.round(mEffectiveBlurRadius * scale));
+        return FastBlurHelper.doBlur(mPreviewBitmap, radius, true, mPreviewBlurContext);
+    }
+
+    /**
+     * Cross-fade from the preview to the blurred background.
+     */
+    private void crossFadeBlurredBackground(Drawable preview, Bitmap bitmap, Rect crop,
+                                            BlurMetrics metrics) {
+        TransitionDrawable transition = new TransitionDrawable(new Drawable[]{preview,
+                createBlurredDrawable(bitmap, crop, metrics)});
+        transition.setCrossFadeEnabled(true);
+        mBlurredBackgroundView.setImageDrawable(transition);
+        transition.startTransition(mAnimationDuration);
+    }
+
+    /**
+     * Describe the blur which would be done now.
+     */
+    private BlurKey createKey() {
+        return new BlurKey(clipRect, mEffectiveBlurRadius, mEffectiveDownScaleFactor,
+                selectAlgorithm().getName(), mService.getDrawGeneration());
+    }
+
+    /**
+     * Display a blurred background right away, used for the frames of live blur.
+     */
+    private void replaceBlurredBackground(Bitmap bitmap, Rect crop, BlurMetrics metrics) {
+        // drawable has no intrinsic size and must fill the view
+        mBlurredBackgroundView.setScaleType(ImageView.ScaleType.FIT_XY);
+        mBlurredBackgroundView.setImageDrawable(createBlurredDrawable(bitmap, crop, metrics));
+    }
+
+    /**
+     * Describe a blurred background being shown.
+     */
+    private BlurMetrics createMetrics(BlurKey key, Bitmap bitmap) {
+        BlurMetrics metrics = new BlurMetrics();
+        metrics.backend = key.backend;
+        metrics.sourceWidth = key.rect.width();
+        metrics.sourceHeight = key.rect.height();
+        metrics.radius = key.radius;
+        metrics.downScaleFactor = key.downScaleFactor;
+        if (bitmap != null) {
+            metrics.width = bitmap.getWidth();
+            metrics.height = bitmap.getHeight();
+        }
+        return metrics;
+    }
+
+    /**
+     * Wrap a blurred background in a drawable, measuring its first draw if metrics are wanted.
+     *
+     * @param crop    part of the bitmap behind the popup.
+     * @param metrics metrics of the blurred background, null for previews.
+     */
+    private Drawable createBlurredDrawable(Bitmap bitmap, Rect crop, BlurMetrics metrics) {
+        if (metrics == null || mBlurMetricsListener == null) {
+            return new CroppedBitmapDrawable(bitmap, crop);
+        }
+        metrics.shownAtNs = System.nanoTime();
+        return new MeasuredBitmapDrawable(bitmap, crop, metrics);
+    }
+
+    /**
+     * Display a blurred background and fade it in.
+     *
+     * @param crop    part of the bitmap behind the popup.
+     * @param metrics metrics of the blurred background, null for previews.
+     */
+    private void showBlurredBackground(Bitmap bitmap, Rect crop, BlurMetrics metrics) {
+        replaceBlurredBackground(bitmap, crop, metrics);
+        fadeInBlurredBackground();
+    }
+
+    /**
+     * Display the fallback color instead of the blurred background and fade it in.
+     */
+    private void showFallbackColor() {
+        mBlurredBackgroundView.setScaleType(ImageView.ScaleType.FIT_XY);
+        mBlurredBackgroundView.setImageDrawable(new ColorDrawable(mFallbackColor));
+        fadeInBlurredBackground();
+    }
+
+    @SuppressLint("NewApi")
+    private void fadeInBlurredBackground() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+            mBlurredBackgroundView.setAlpha(0f);
+            mBlurredBackgroundView
+                    .animate()
+                    .alpha(1f)
+                    .setDuration(mAnimationDuration)
+                    .setInterpolator(new LinearInterpolator())
+                    .start();
+        }
+    }
+
+    /**
+     * Pick the cheapest algorithm able to blur the capture which would be done now.
+     */
+    private BlurAlgorithm selectAlgorithm() {
+        BlurAlgorithm[] candidates = mBlurAlgorithms;
+        if (candidates == null) {
+            candidates = new BlurAlgorithm[]{mUseRenderScript ? getRenderScriptAlgorithm()
+                    : mStackBlurAlgorithm};
+        }
+        int height = getCaptureHeight();
+        int width = getCaptureWidth(height);
+        BlurAlgorithm algorithm = BlurAlgorithms.cheapest(candidates, width, height,
+                mEffectiveBlurRadius, mHeapBudget);
+        if (algorithm == null) {
+            // none fits in the heap, down scale factor is then raised until one does
+            algorithm = BlurAlgorithms.cheapest(candidates, width, height, mEffectiveBlurRadius);
+        }
+        return algorithm != null ? algorithm : mStackBlurAlgorithm;
+    }
+
+    /**
+     * Update the effective down scale factor and radius, picking the sharpest blur expected to
+     * fit in the latency budget, if any, and in the heap.
+     */
+    private void adaptQuality() {
+        mEffectiveDownScaleFactor = mDownScaleFactor;
+        mEffectiveBlurRadius = mBlurRadius;
+        mHeapBudget = Long.MAX_VALUE;
+        updateCaptureRect();
+        if (mBlurLatencyBudget > 0 && mBlurRadius >= 1 && !clipRect.isEmpty()) {
+            fitLatencyBudget();
+        }
+        fitHeapBudget();
+    }
+
+    /**
+     * Pick the sharpest down scale factor expected to fit in the latency budget.
+     */
+    private void fitLatencyBudget() {
+        long budgetNs = mBlurLatencyBudget * 1000000L;
+        // standard deviation of the blur, in screen pixels
+        float sigma = BlurAlgorithms.radiusToSigma(mBlurRadius) * mDownScaleFactor;
+        for (float factor : ADAPTIVE_DOWN_SCALE_FACTORS) {
+            // past the last factor, fastest blur is used whatever its duration
+            mEffectiveDownScaleFactor = factor;
+            mEffectiveBlurRadius = Math.max(1,
+                    Math.round(BlurAlgorithms.sigmaToRadius(sigma / factor)));
+            updateCaptureRect();
+            int height = getCaptureHeight();
+            int width = getCaptureWidth(height);
+            if (BlurAlgorithms.predictCost(selectAlgorithm(), width, height,
+                    mEffectiveBlurRadius) <= budgetNs) {
+                break;
+            }
         }
         if (mDebugEnable) {
+            Log.d(TAG, "Latency budget of " + mBlurLatencyBudget + " ms : down scale factor "
+                    + mEffectiveDownScaleFactor + ", radius " + mEffectiveBlurRadius);
+        }
+    }
+
+    /**
+     * Raise the down scale factor until the blur is expected to fit in the free heap, keeping
+     * the apparent blur strength, or flag the heap as exhausted.
+     * <p/>
+     * Buffers kept from previous blurs are counted as if they had to be allocated again, so
+     * the estimate errs on the safe side.
+     */
+    private void fitHeapBudget() {
+        Runtime runtime = Runtime.getRuntime();
+        long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        mHeapBudget = (long) (free * (mLowRamDevice ? LOW_RAM_HEAP_BUDGET_RATIO
+                : HEAP_BUDGET_RATIO));
+        mHeapExhausted = false;
+        if (clipRect.isEmpty()) {
+            return;
+        }
+        float requestedFactor = mEffectiveDownScaleFactor;
+        float sigma = BlurAlgorithms.radiusToSigma(mEffectiveBlurRadius)
+                * mEffectiveDownScaleFactor;
+        while (true) {
+            int height = getCaptureHeight();
+            int width = getCaptureWidth(height);
+            if (BlurAlgorithms.estimateHeapBytes(selectAlgorithm(), width, height)
+                    <= mHeapBudget) {
+                break;
+            }
+            if (mEffectiveDownScaleFactor >= MAX_HEAP_DOWN_SCALE_FACTOR) {
+                mHeapExhausted = true;
+                break;
+            }
+            mEffectiveDownScaleFactor = Math.min(MAX_HEAP_DOWN_SCALE_FACTOR,
+                    mEffectiveDownScaleFactor * 2);
+            if (mEffectiveBlurRadius >= 1) {
+                mEffectiveBlurRadius = Math.max(1, Math.round(
+                        BlurAlgorithms.sigmaToRadius(sigma / mEffectiveDownScaleFactor)));
+            }
+            updateCaptureRect();
+        }
+        if (mDebugEnable && (mHeapExhausted || mEffectiveDownScaleFactor != requestedFactor)) {
+            Log.d(TAG, "Heap budget of " + mHeapBudget + "o" + (mLowRamDevice ? " (low ram)" : "")
+                    + " : down scale factor " + mEffectiveDownScaleFactor + ", radius "
+                    + mEffectiveBlurRadius + (mHeapExhausted ? ", blur abandoned" : ""));
+        }
+    }
+
+    private RenderScriptBlurAlgorithm getRenderScriptAlgorithm() {
+        return mService.getRenderScriptAlgorithm();
+    }
+
+    /**
+     * Add to clipRect a margin as large as the blur, in screen pixels, within the view.
+     * <p/>
+     * Every algorithm follows the radius convention of {@link BlurAlgorithm}, so pixels farther
+     * than {@link BlurAlgorithms#kernelExtent(int)} don't change the blurred popup area.
+     */
+    private void updateCaptureRect() {
+        mCaptureRect.set(clipRect);
+        if (clipRect.isEmpty() || mEffectiveBlurRadius < 1) {
+            return;
+        }
+        // one more capture pixel covers the rounding of the down scaled size
+        int margin = (int) Math.ceil((BlurAlgorithms.kernelExtent(mEffectiveBlurRadius) + 1)
+                * mEffectiveDownScaleFactor);
+        mCaptureRect.inset(-margin, -margin);
+        // view not laid out yet, capture rect will be updated once it is
+        if (!mCaptureRect.intersect(0, 0, mBlurView.getWidth(), mBlurView.getHeight())) {
+            mCaptureRect.set(clipRect);
+        }
+    }
+
+    private int getCaptureHeight() {
+        return (int) Math.ceil(mCaptureRect.height() / mEffectiveDownScaleFactor);
+    }
+
+    /**
+     * In order to keep the same ratio as the one which will be used for rendering, compute
+     * width from the rounded height.
+     */
+    private int getCaptureWidth(int height) {
+        return mCaptureRect.isEmpty() ? 0
+                : (int) Math.ceil(mCaptureRect.width() * (double) height / mCaptureRect.height());
+    }
+
+    /**
+     * Compute where clipRect lands in a bitmap holding the capture rect.
+     *
+     * @param bitmap capture, or any scaled copy of it.
+     * @return part of the bitmap behind the popup.
+     */
+    private Rect computeCrop(Bitmap bitmap) {
+        float scaleX = bitmap.getWidth() / (float) mCaptureRect.width();
+        float scaleY = bitmap.getHeight() / (float) mCaptureRect.height();
+        return new Rect(
+                Math.round((clipRect.left - mCaptureRect.left) * scaleX),
+                Math.round((clipRect.top - mCaptureRect.top) * scaleY),
+                Math.round((clipRect.right - mCaptureRect.left) * scaleX),
+                Math.round((clipRect.bottom - mCaptureRect.top) * scaleY));
+    }
+
+    /**
+     * Draw the capture rect of the view, already down scaled, into a reusable bitmap.
+     * <p/>
+     * Must be called on ui thread.
+     *
+     * @param view      background view.
+     * @param algorithm algorithm which will blur the capture.
+     * @return down scaled capture, null if there is nothing to capture.
+     */
+    private Bitmap capture(View view, BlurAlgorithm algorithm) {
+        if (clipRect.isEmpty()) {
+            return null;
+        }
+        int height = getCaptureHeight();
+        int width = getCaptureWidth(height);
+
+        Bitmap bitmap = obtainCaptureBitmap(width, height, algorithm.getPreferredConfig());
+
+        //scale and translate so that only the captured area lands in the bitmap
+        mCaptureCanvas.setBitmap(bitmap);
+        int saveCount = mCaptureCanvas.save();
+        mCaptureCanvas.scale(width / (float) mCaptureRect.width(),
+                height / (float) mCaptureRect.height());
+        mCaptureCanvas.translate(-mCaptureRect.left - view.getScrollX(),
+                -mCaptureRect.top - view.getScrollY());
+        view.draw(mCaptureCanvas);
+        mCaptureCanvas.restoreToCount(saveCount);
+        return bitmap;
+    }
+
+    /**
+     * Get an erased bitmap to capture in, reusing a previous one when possible.
+     * <p/>
+     * Draw straight into the format the blur works in, so it never has to convert it.
+     */
+    private Bitmap obtainCaptureBitmap(int width, int height, Bitmap.Config config) {
+        mCaptureAllocatedBytes = 0;
+        // the bitmap of a task still running can't be drawn over
+        if (mRunningTasks == 0) {
+            Bitmap cached = null;
+            for (int i = 0; i < mCaptureBitmaps.length; i++) {
+                Bitmap bitmap = mCaptureBitmaps[i];
+                if (bitmap != null && mService.isLent(bitmap)) {
+                    // shown by other popups too, never drawn over again
+                    mCaptureBitmaps[i] = bitmap = null;
+                }
+                if (bitmap == null || bitmap.getWidth() != width
+                        || bitmap.getHeight() != height || bitmap.getConfig() != config) {
+                    continue;
+                }
+                if (bitmap == mCachedBitmap) {
+                    cached = bitmap;
+                    continue;
+                }
+                mService.forgetFrame(bitmap);
+                bitmap.eraseColor(Color.TRANSPARENT);
+                return bitmap;
+            }
+            // with live blur, the bitmap being displayed stays on screen while blurring
+            if (cached != null && !mLiveActive) {
+                mCachedBitmap = null;
+                mCachedCrop = null;
+                mCachedKey = null;
+                mService.forgetFrame(cached);
+                cached.eraseColor(Color.TRANSPARENT);
+                return cached;
+            }
+        }
+        // replace a buffer which isn't displayed, the first one unless it is
+        int slot = mCaptureBitmaps[0] != null && mCaptureBitmaps[0] == mCachedBitmap ? 1 : 0;
+        Bitmap replaced = mCaptureBitmaps[slot];
+        if (replaced != null && mRunningTasks == 0 && !mService.isLent(replaced)) {
+            mService.forgetFrame(replaced);
+            mBitmapPool.put(replaced);
+        }
+        Bitmap bitmap = mBitmapPool.get(width, height, config);
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, config);
+            mCaptureAllocatedBytes = bitmap.getRowBytes() * bitmap.getHeight();
+        }
+        mCaptureBitmaps[slot] = bitmap;
+        return bitmap;
+    }
+
+    /**
+     * Blur the given down scaled capture in place.
+     *
+     * @param bkg          down scaled capture of the background.
+     * @param algorithm    algorithm used to blur.
+     * @param radius       blur radius.
+     * @param metrics      metrics the algorithm used and its allocations are added to.
+     * @param cancellation token checked while blurring.
+     * @return blurred bitmap
+     * @throws java.util.concurrent.CancellationException if cancelled
+     */
+    private Bitmap blur(Bitmap bkg, BlurAlgorithm algorithm, int radius, BlurMetrics metrics,
+                        BlurCancellation cancellation) {
+        long startMs = System.currentTimeMillis();
+
+        //apply blur on overlay
+        Bitmap overlay = timedBlur(bkg, algorithm, radius, cancellation);
+        if (overlay == null && radius > 0 && algorithm != mStackBlurAlgorithm) {
+            // algorithm failed, continue with the fast blur approach
+            metrics.allocatedBytes += algorithm.getAllocatedBytes();
+            algorithm = mStackBlurAlgorithm;
+            overlay = timedBlur(bkg, algorithm, radius, cancellation);
+        }
+        metrics.backend = algorithm.getName();
+        metrics.allocatedBytes += algorithm.getAllocatedBytes();
+        if (mDebugEnable && overlay != null) {
             String blurTime = (System.currentTimeMillis() - startMs) + " ms";
-            Log.d(TAG, "Blur method : " + (mUseRenderScript ? "RenderScript" : "FastBlur"));
-            Log.d(TAG, "Radius : " + mBlurRadius);
-            Log.d(TAG, "Down Scale Factor : " + mDownScaleFactor);
+            Log.d(TAG, "Blur method : " + algorithm.getName());
+            Log.d(TAG, "Radius : " + radius);
+            Log.d(TAG, "Down Scale Factor : " + metrics.downScaleFactor);
             Log.d(TAG, "Blurred achieved in : " + blurTime);
-            Log.d(TAG, "Allocation : " + bkg.getRowBytes() + "ko (screen capture) + "
-                    + overlay.getRowBytes() + "ko (blurred bitmap)"
-                    + (!mUseRenderScript ? " + temp buff " + overlay.getRowBytes() + "ko." : "."));
+            Log.d(TAG, "Allocation : " + overlay.getRowBytes() * overlay.getHeight()
+                    + "o (blurred bitmap)"
+                    + (!(algorithm instanceof RenderScriptBlurAlgorithm) ? " + temp buff " + overlay.getRowBytes()
+                    * overlay.getHeight() * 4 + "o." : "."));
             Rect bounds = new Rect();
             Canvas canvas1 = new Canvas(overlay);
+            Paint paint = new Paint();
             paint.setColor(Color.BLACK);
             paint.setAntiAlias(true);
             paint.setTextSize(20.0f);
@@ -338,6 +1442,25 @@ public class BlurPopupEngine {
         return overlay;
     }
 
+    /**
+     * Blur with the given algorithm, recording how long it took for later estimates.
+     */
+    private Bitmap timedBlur(Bitmap bkg, BlurAlgorithm algorithm, int radius,
+                             BlurCancellation cancellation) {
+        long startNs = System.nanoTime();
+        Bitmap blurred;
+        // algorithms are shared with the other popups, which may blur on other threads
+        synchronized (mService.getBlurLock()) {
+            blurred = algorithm.blur(bkg, radius, cancellation);
+        }
+        if (blurred != null) {
+            BlurTimings.record(algorithm.getName(),
+                    algorithm.estimateCost(bkg.getWidth(), bkg.getHeight(), radius),
+                    System.nanoTime() - startNs);
+        }
+        return blurred;
+    }
+
     /**
      * Used to check if the status bar is translucent.
      *
@@ -353,6 +1476,43 @@ public class BlurPopupEngine {
         return isStatusBarTranslucent;
     }
 
+    /**
+     * Bitmap drawable notifying the metrics listener once drawn for the first time.
+     */
+    private class MeasuredBitmapDrawable extends CroppedBitmapDrawable {
+
+        private BlurMetrics mMetrics;
+
+        MeasuredBitmapDrawable(Bitmap bitmap, Rect crop, BlurMetrics metrics) {
+            super(bitmap, crop);
+            mMetrics = metrics;
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+            if (mMetrics == null) {
+                super.draw(canvas);
+                return;
+            }
+            long startNs = System.nanoTime();
+            super.draw(canvas);
+            long endNs = System.nanoTime();
+            final BlurMetrics metrics = mMetrics;
+            mMetrics = null;
+            metrics.uploadNs = endNs - startNs;
+            metrics.firstFrameNs = endNs - metrics.shownAtNs;
+            // don't call the listener in the middle of a draw
+            mBlurredBackgroundView.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mBlurMetricsListener != null) {
+                        mBlurMetricsListener.onBlurMetrics(metrics);
+                    }
+                }
+            });
+        }
+    }
+
     /**
      * Async task used to process blur out of ui thread
      */
@@ -360,6 +1520,84 @@ public class BlurPopupEngine {
 
         private Bitmap mBackground;
         private View mBackgroundView;
+        private BlurKey mKey;
+        private BlurAlgorithm mAlgorithm;
+        private int mRadius;
+        private Drawable mPreview;
+        private BlurMetrics mMetrics;
+        private Rect mCrop;
+
+        /**
+         * Live blur state: whether captured pixels are kept to be compared with the next
+         * capture, displayed background which can be patched, whether the capture is the same
+         * as the displayed one, and patch blurred around the changes.
+         */
+        private boolean mRecordSource;
+        private Bitmap mPatchTarget;
+        private boolean mUnchanged;
+        private boolean mPatched;
+
+        /**
+         * True if capturing or blurring ran out of memory.
+         */
+        private boolean mOutOfMemory;
+
+        /**
+         * Bounds, in the capture, of the area blurred around the changes and of the part of it
+         * copied into the displayed background.
+         */
+        private final int[] mBlurBounds = new int[4];
+        private final int[] mPatchBounds = new int[4];
+
+        /**
+         * True for the frames of live blur, shown without preview nor animation.
+         */
+        private final boolean mLive;
+
+        /**
+         * True while the popup isn't shown, the result being then only cached.
+         */
+        private boolean mSpeculative;
+
+        /**
+         * Request the blur has been started for, its result is dropped once superseded.
+         */
+        private int mGeneration = mRequestGeneration;
+
+        /**
+         * Checked by the kernels between bands, so that a cancelled blur stops early.
+         */
+        private final BlurCancellation mCancellation = new BlurCancellation();
+
+        BlurAsyncTask(boolean live, boolean speculative) {
+            mLive = live;
+            mSpeculative = speculative;
+        }
+
+        /**
+         * @return true if the popup wasn't shown when the blur started and still isn't.
+         */
+        boolean isSpeculating() {
+            return mSpeculative && getStatus() != Status.FINISHED && !isCancelled();
+        }
+
+        /**
+         * Show the result of a speculative blur once done.
+         *
+         * @param generation request showing the popup.
+         */
+        void adopt(int generation) {
+            mSpeculative = false;
+            mGeneration = generation;
+        }
+
+        /**
+         * Stop blurring as soon as possible, the result will never be shown.
+         */
+        void cancelBlur() {
+            mCancellation.cancel();
+            cancel(true);
+        }
 
         @Override
         protected void onPreExecute() {
@@ -370,73 +1608,272 @@ public class BlurPopupEngine {
             //retrieve background view, must be achieved on ui thread since
             //only the original thread that created a view hierarchy can touch its views.
 
-            Rect rect = new Rect();
-            mBackgroundView.getWindowVisibleDisplayFrame(rect);
-            mBackgroundView.destroyDrawingCache();
-            mBackgroundView.setDrawingCacheEnabled(true);
-            mBackgroundView.buildDrawingCache(true);
-            mBackground = mBackgroundView.getDrawingCache(true);
-            mBackground = Bitmap.createBitmap(mBackground, clipRect.left, clipRect.top,
-                    clipRect.width(), clipRect.height(), null, false);
-
             /**
-             * After rotation, the DecorView has no height and no width. Therefore
-             * .getDrawingCache() return null. That's why we  have to force measure and layout.
+             * After rotation, the DecorView has no height and no width. That's why we have to
+             * force measure and layout.
              */
-            if (mBackground == null) {
+            if (mBackgroundView.getWidth() == 0 || mBackgroundView.getHeight() == 0) {
+                Rect rect = new Rect();
+                mBackgroundView.getWindowVisibleDisplayFrame(rect);
                 mBackgroundView.measure(
                         View.MeasureSpec.makeMeasureSpec(rect.width(), View.MeasureSpec.EXACTLY),
                         View.MeasureSpec.makeMeasureSpec(rect.height(), View.MeasureSpec.EXACTLY)
                 );
                 mBackgroundView.layout(0, 0, mBackgroundView.getMeasuredWidth(),
                         mBackgroundView.getMeasuredHeight());
-                mBackgroundView.destroyDrawingCache();
-                mBackgroundView.setDrawingCacheEnabled(true);
-                mBackgroundView.buildDrawingCache(true);
-                mBackground = mBackgroundView.getDrawingCache(true);
-                mBackground = Bitmap.createBitmap(mBackground, clipRect.left, clipRect.top,
-                        clipRect.width(), clipRect.height(), null, false);
+            }
+            updateCaptureRect();
+            mAlgorithm = selectAlgorithm();
+            mRadius = mEffectiveBlurRadius;
+            long captureStartNs = System.nanoTime();
+            try {
+                mBackground = capture(mBackgroundView, mAlgorithm);
+            } catch (OutOfMemoryError e) {
+                mOutOfMemory = true;
+                mBackground = null;
+            }
+            long captureNs = System.nanoTime() - captureStartNs;
+            mKey = createKey();
+            mMetrics = createMetrics(mKey, mBackground);
+            mMetrics.captureNs = captureNs;
+            if (mBackground != null) {
+                mCrop = computeCrop(mBackground);
+                mMetrics.allocatedBytes += mCaptureAllocatedBytes;
+                if (!mLive) {
+                    // other popups asking for the same blur meanwhile wait for this one
+                    mService.startPending(BlurPopupEngine.this, mKey);
+                }
+            }
+            mRecordSource = mLiveActive && mBackground != null;
+            // other algorithms must blur the whole capture to give the same result
+            if (mLive && mCachedBitmap != null && mCachedBitmap == mLiveSourceBitmap
+                    && mKey.sameParameters(mCachedKey)
+                    && BlurAlgorithms.hasLocalSupport(mAlgorithm)) {
+                mPatchTarget = mCachedBitmap;
+            }
+            mRunningTasks++;
+            if (mProgressiveBlur && !mLive && !mSpeculative && mBackground != null) {
+                Bitmap preview;
+                try {
+                    preview = blurPreview(mBackground);
+                } catch (OutOfMemoryError e) {
+                    // full blur may still fit once the preview is gone
+                    mPreviewBitmap = null;
+                    mPreviewBlurContext.release();
+                    preview = null;
+                }
+                if (preview != null) {
+                    mMetrics.allocatedBytes += mPreviewAllocatedBytes;
+                    mMetrics.allocatedBytes += mPreviewBlurContext.takeAllocatedBytes();
+                    showBlurredBackground(preview, computeCrop(preview), null);
+                    mPreview = mBlurredBackgroundView.getDrawable();
+                }
             }
         }
 
         @Override
         protected Bitmap doInBackground(Void... params) {
-            Bitmap blur;
             //process to the blue
-            if (!isCancelled()) {
-                blur = blur(mBackground, mBackgroundView);
-            } else {
+            if (!isCancelled() && mBackground != null) {
+                long startNs = System.nanoTime();
+                Bitmap blurred;
+                try {
+                    blurred = mRecordSource ? blurLive()
+                            : blur(mBackground, mAlgorithm, mRadius, mMetrics, mCancellation);
+                } catch (CancellationException e) {
+                    // superseded, buffers stay in the algorithm for the next blur
+                    return null;
+                } catch (OutOfMemoryError e) {
+                    // free what the failed blur grew, the fallback color is shown instead
+                    mOutOfMemory = true;
+                    synchronized (mService.getBlurLock()) {
+                        mAlgorithm.release();
+                        mStackBlurAlgorithm.release();
+                    }
+                    mLiveSourcePixels = null;
+                    mLiveCapturePixels = null;
+                    return null;
+                }
+                mMetrics.blurNs = System.nanoTime() - startNs;
+                return blurred;
+            }
+            return null;
+        }
+
+        /**
+         * Blur only the area around what changed since the displayed background when it is
+         * small enough, otherwise the whole capture, keeping the captured pixels for the next
+         * frame.
+         * <p/>
+         * A blurred pixel only depends on the pixels within the kernel extent, so the changes
+         * spread that far in the blurred background, and blurring them needs the pixels twice as
+         * far around the changes.
+         *
+         * @return displayed background, patched on ui thread, or the blurred capture
+         */
+        private Bitmap blurLive() {
+            int width = mBackground.getWidth();
+            int height = mBackground.getHeight();
+            int size = width * height;
+            if (mLiveCapturePixels == null || mLiveCapturePixels.length != size) {
+                mLiveCapturePixels = new int[size];
+                mMetrics.allocatedBytes += size * 4L;
+            }
+            int[] capture = mLiveCapturePixels;
+            int[] source = mLiveSourcePixels;
+            mBackground.getPixels(capture, 0, width, 0, 0, width, height);
+            // whatever happens, the new capture is the source of the next frame
+            mLiveSourcePixels = capture;
+            mLiveCapturePixels = source;
+            if (mPatchTarget == null || source == null || source.length != size) {
+                return blur(mBackground, mAlgorithm, mRadius, mMetrics, mCancellation);
+            }
+            if (!DirtyRegion.find(source, capture, width, height, mPatchBounds)) {
+                mUnchanged = true;
+                return mPatchTarget;
+            }
+            int extent = BlurAlgorithms.kernelExtent(mRadius);
+            DirtyRegion.expand(mPatchBounds, 2 * extent, width, height, mBlurBounds);
+            DirtyRegion.expand(mPatchBounds, extent, width, height, mPatchBounds);
+            if (DirtyRegion.area(mBlurBounds) > size * MAX_PATCH_AREA_RATIO) {
+                return blur(mBackground, mAlgorithm, mRadius, mMetrics, mCancellation);
+            }
+
+            int blurWidth = mBlurBounds[DirtyRegion.RIGHT] - mBlurBounds[DirtyRegion.LEFT];
+            int blurHeight = mBlurBounds[DirtyRegion.BOTTOM] - mBlurBounds[DirtyRegion.TOP];
+            Bitmap patch = mPatchBitmap;
+            if (patch == null || patch.getWidth() != blurWidth
+                    || patch.getHeight() != blurHeight
+                    || patch.getConfig() != mBackground.getConfig()) {
+                // patches change size with every frame, the pool reconfigures a large enough one
+                mBitmapPool.put(patch);
+                patch = mBitmapPool.get(blurWidth, blurHeight, mBackground.getConfig());
+                if (patch == null) {
+                    patch = Bitmap.createBitmap(blurWidth, blurHeight, mBackground.getConfig());
+                    mMetrics.allocatedBytes += patch.getRowBytes() * patch.getHeight();
+                }
+                mPatchBitmap = patch;
+            }
+            patch.setPixels(capture, mBlurBounds[DirtyRegion.TOP] * width
+                            + mBlurBounds[DirtyRegion.LEFT], width, 0, 0, blurWidth, blurHeight);
+            patch = blur(patch, mAlgorithm, mRadius, mMetrics, mCancellation);
+            if (patch == null) {
                 return null;
             }
-            //clear memory
-            mBackground.recycle();
-            return blur;
+            mMetrics.width = blurWidth;
+            mMetrics.height = blurHeight;
+
+            // only the part the changes spread to is copied, the rest went without its
+            // surroundings
+            int patchWidth = mPatchBounds[DirtyRegion.RIGHT] - mPatchBounds[DirtyRegion.LEFT];
+            int patchHeight = mPatchBounds[DirtyRegion.BOTTOM] - mPatchBounds[DirtyRegion.TOP];
+            if (mPatchPixels == null || mPatchPixels.length < patchWidth * patchHeight) {
+                mPatchPixels = new int[patchWidth * patchHeight];
+                mMetrics.allocatedBytes += mPatchPixels.length * 4L;
+            }
+            patch.getPixels(mPatchPixels, 0, patchWidth,
+                    mPatchBounds[DirtyRegion.LEFT] - mBlurBounds[DirtyRegion.LEFT],
+                    mPatchBounds[DirtyRegion.TOP] - mBlurBounds[DirtyRegion.TOP],
+                    patchWidth, patchHeight);
+            mPatched = true;
+            return mPatchTarget;
         }
 
         @Override
-        @SuppressLint("NewApi")
         protected void onPostExecute(Bitmap bitmap) {
             super.onPostExecute(bitmap);
-            if (bitmap != null) {
-                mBlurredBackgroundView.setScaleType(ImageView.ScaleType.CENTER_CROP);
-                mBlurredBackgroundView.setImageDrawable(new BitmapDrawable(mContext.getResources(),
-                        bitmap));
+            if (!mLive) {
+                // still what other popups wait for, even if this one no longer wants it
+                mService.finishPending(BlurPopupEngine.this, mKey, bitmap, mCrop);
+            }
+            if (mGeneration != mRequestGeneration) {
+                // popup has been dismissed or shown again meanwhile
+                bitmap = null;
             }
+            if ((mUnchanged || mPatched) && mPatchTarget != mCachedBitmap) {
+                // displayed background has been replaced meanwhile
+                bitmap = null;
+            }
+            if (bitmap != null && mUnchanged) {
+                mCachedKey = mKey;
+            } else if (bitmap != null && mPatched) {
+                int patchWidth = mPatchBounds[DirtyRegion.RIGHT] - mPatchBounds[DirtyRegion.LEFT];
+                int patchHeight = mPatchBounds[DirtyRegion.BOTTOM]
+                        - mPatchBounds[DirtyRegion.TOP];
+                bitmap.setPixels(mPatchPixels, 0, patchWidth, mPatchBounds[DirtyRegion.LEFT],
+                        mPatchBounds[DirtyRegion.TOP], patchWidth, patchHeight);
+                mCachedKey = mKey;
+                mBlurredBackgroundView.invalidate();
+                if (mBlurMetricsListener != null) {
+                    mBlurMetricsListener.onBlurMetrics(mMetrics);
+                }
+            } else if (bitmap != null) {
+                mCachedBitmap = bitmap;
+                mCachedCrop = mCrop;
+                mCachedKey = mKey;
+                if (mSpeculative) {
+                    // popup not shown yet
+                    mSpeculativeResult = true;
+                } else if (mLive) {
+                    replaceBlurredBackground(bitmap, mCrop, mMetrics);
+                } else if (mPreview != null) {
+                    crossFadeBlurredBackground(mPreview, bitmap, mCrop, mMetrics);
+                } else {
+                    showBlurredBackground(bitmap, mCrop, mMetrics);
+                }
+            } else if (mOutOfMemory) {
+                onOutOfMemory();
+            }
+            mLiveSourceBitmap = mRecordSource && bitmap != null ? mCachedBitmap : null;
+            mBackgroundView = null;
+            mBackground = null;
+            mAlgorithm = null;
+            mPreview = null;
+            mMetrics = null;
+            mCrop = null;
+            mPatchTarget = null;
+            mRunningTasks--;
+            if (mLiveFramePending) {
+                mLiveFramePending = false;
+                scheduleLiveFrame();
+            }
+            releaseIfIdle();
+        }
 
-            mBackgroundView.destroyDrawingCache();
-            mBackgroundView.setDrawingCacheEnabled(false);
+        /**
+         * Drop the pooled bitmaps and stop live blur, showing the fallback color unless a
+         * blurred background is already displayed or the popup no longer waits for one.
+         */
+        private void onOutOfMemory() {
+            if (mDebugEnable) {
+                Log.d(TAG, "Out of memory while blurring, " + (mLive ? "live blur stopped"
+                        : "fallback color shown"));
+            }
+            mBitmapPool.clear();
+            if (mLive) {
+                mLiveActive = false;
+            } else if (!mSpeculative && mGeneration == mRequestGeneration) {
+                showFallbackColor();
+            }
+        }
 
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
-                mBlurredBackgroundView.setAlpha(0f);
-                mBlurredBackgroundView
-                        .animate()
-                        .alpha(1f)
-                        .setDuration(mAnimationDuration)
-                        .setInterpolator(new LinearInterpolator())
-                        .start();
+        @Override
+        protected void onCancelled() {
+            super.onCancelled();
+            if (mRecordSource) {
+                // captured pixels may no longer match the displayed background
+                mLiveSourceBitmap = null;
             }
+            mService.finishPending(BlurPopupEngine.this, mKey, null, null);
             mBackgroundView = null;
             mBackground = null;
+            mAlgorithm = null;
+            mPreview = null;
+            mMetrics = null;
+            mCrop = null;
+            mPatchTarget = null;
+            mRunningTasks--;
+            releaseIfIdle();
         }
     }
 }
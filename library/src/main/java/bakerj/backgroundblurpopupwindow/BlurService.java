@@ -0,0 +1,506 @@
+package bakerj.backgroundblurpopupwindow;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Application;
+import android.content.ComponentCallbacks;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Bundle;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Blur resources shared by every popup of an activity.
+ * <p/>
+ * Owns the default algorithms with their buffers, the executor blurs run on, the pool of
+ * bitmaps, the count of draws of the background and the last blurred background. Popups showing the same part of an
+ * unchanged background with the same parameters reuse it instead of blurring again, and a
+ * popup asking for a blur which is already running waits for its result. Everything is
+ * released once the last popup using the service is destroyed.
+ * <p/>
+ * The service of an activity only weakly references its popups, so that it never keeps the
+ * activity alive. Since Ice Cream Sandwich, it is also forgotten and its pooled bitmaps dropped
+ * once the activity is destroyed. Before that, popups must be destroyed along with their
+ * activity, otherwise the service and its pooled bitmaps stay until the process dies.
+ * <p/>
+ * Must be used on ui thread, only the algorithms being used on the executor.
+ */
+public final class BlurService {
+
+    /**
+     * Services of the activities, only used on ui thread.
+     */
+    private static final Map<Activity, BlurService> sServices =
+            new WeakHashMap<Activity, BlurService>();
+
+    /**
+     * Forgets the services of destroyed activities, registered with the first service.
+     */
+    private static Application.ActivityLifecycleCallbacks sLifecycleCallbacks;
+
+    /**
+     * Notified when a blur a popup waits for is done.
+     */
+    interface FrameCallback {
+
+        /**
+         * @param key    what the background has been blurred with
+         * @param bitmap blurred background, null if the blur failed or has been cancelled
+         * @param crop   part of the bitmap behind the popup
+         */
+        void onFrame(BlurKey key, Bitmap bitmap, Rect crop);
+    }
+
+    /**
+     * Only the application context is kept, views and engines are only weakly referenced, so
+     * that the map of services doesn't keep activities alive.
+     */
+    private Context mContext;
+    private final WeakReference<View> mBlurView;
+
+    /**
+     * Engines using the service.
+     */
+    private int mReferences = 1;
+
+    private final StackBlurAlgorithm mStackBlurAlgorithm = new StackBlurAlgorithm();
+    private RenderScriptBlurAlgorithm mRenderScriptAlgorithm;
+    private LatestBlurExecutor mExecutor;
+    private final BitmapPool mBitmapPool = new BitmapPool();
+
+    /**
+     * Held while a popup blurs, since popups blurring on several threads, before Honeycomb or
+     * with executors of their own, would otherwise share the buffers of the algorithms.
+     */
+    private final Object mBlurLock = new Object();
+
+    /**
+     * Trims the pool when the system runs low on memory, since Ice Cream Sandwich.
+     */
+    private ComponentCallbacks mTrimCallbacks;
+
+    /**
+     * Number of times the blurred view hierarchy has been about to draw, a captured background
+     * is up to date as long as this doesn't change.
+     */
+    private final DrawCounter<View> mDrawCounter = new DrawCounter<View>(new ViewHierarchy());
+
+    /**
+     * Counts every draw of the blurred view hierarchy, but the ones only redrawing anchors.
+     * Which views are dirty is only known since Honeycomb.
+     */
+    private final ViewTreeObserver.OnPreDrawListener mOnPreDrawListener =
+            new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    View blurView = mBlurView.get();
+                    // whole window, anchors may be out of the content view, as in an action bar
+                    mDrawCounter.onDraw(blurView != null
+                            && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                            ? blurView.getRootView() : null);
+                    return true;
+                }
+            };
+
+    /**
+     * Last blurred background, the engine which blurred it, and whether it has been handed to
+     * other engines, in which case its owner must never draw over it again.
+     */
+    private Bitmap mFrameBitmap;
+    private Rect mFrameCrop;
+    private BlurKey mFrameKey;
+    private WeakReference<Object> mFrameOwner;
+    private final Map<Bitmap, Boolean> mLentBitmaps = new WeakHashMap<Bitmap, Boolean>();
+
+    /**
+     * Blur running for a popup and the popups waiting for its result.
+     */
+    private BlurKey mPendingKey;
+    private WeakReference<Object> mPendingOwner;
+    private final ArrayList<WeakReference<FrameCallback>> mWaiting =
+            new ArrayList<WeakReference<FrameCallback>>();
+
+    /**
+     * Get the service of an activity, creating it if needed.
+     * <p/>
+     * Each call must be balanced by a call to {@link #release()}, typically when the popup is
+     * destroyed along with the activity.
+     *
+     * @param activity activity whose content is blurred
+     * @return service shared by the popups of the activity
+     */
+    public static BlurService obtain(Activity activity) {
+        BlurService service = sServices.get(activity);
+        if (service == null) {
+            service = new BlurService(activity, activity.findViewById(android.R.id.content));
+            sServices.put(activity, service);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+                registerLifecycleCallbacks(activity.getApplication());
+            }
+        } else {
+            service.mReferences++;
+        }
+        return service;
+    }
+
+    /**
+     * Constructor of a service which isn't shared through {@link #obtain(Activity)}.
+     *
+     * @param context  used by RenderScript, only the application context is kept
+     * @param blurView view whose draws are counted
+     */
+    BlurService(Context context, View blurView) {
+        mContext = context.getApplicationContext();
+        mBlurView = new WeakReference<View>(blurView);
+        blurView.getViewTreeObserver().addOnPreDrawListener(mOnPreDrawListener);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            registerTrimCallbacks();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private static void registerLifecycleCallbacks(Application application) {
+        if (sLifecycleCallbacks != null) {
+            return;
+        }
+        sLifecycleCallbacks = new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+
+            }
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+
+            }
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+                BlurService service = sServices.remove(activity);
+                if (service != null) {
+                    service.detach();
+                }
+            }
+        };
+        application.registerActivityLifecycleCallbacks(sLifecycleCallbacks);
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private void registerTrimCallbacks() {
+        mTrimCallbacks = new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                mBitmapPool.trimMemory(level);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+
+            }
+
+            @Override
+            public void onLowMemory() {
+                mBitmapPool.clear();
+            }
+        };
+        mContext.registerComponentCallbacks(mTrimCallbacks);
+    }
+
+    /**
+     * Stop sharing the service once its activity is destroyed, so that the application no
+     * longer references it. Popups not destroyed yet keep using it until they release it.
+     */
+    private void detach() {
+        if (mTrimCallbacks != null) {
+            mContext.unregisterComponentCallbacks(mTrimCallbacks);
+            mTrimCallbacks = null;
+        }
+        publishFrame(null, null, null, null);
+        mBitmapPool.clear();
+    }
+
+    /**
+     * Stop using the service, resources being released with the last user.
+     */
+    public void release() {
+        if (mReferences == 0 || --mReferences > 0) {
+            // other users left, or already released
+            return;
+        }
+        Iterator<BlurService> services = sServices.values().iterator();
+        while (services.hasNext()) {
+            if (services.next() == this) {
+                services.remove();
+            }
+        }
+        View blurView = mBlurView.get();
+        if (blurView != null && blurView.getViewTreeObserver().isAlive()) {
+            blurView.getViewTreeObserver().removeOnPreDrawListener(mOnPreDrawListener);
+        }
+        finishPending(get(mPendingOwner), mPendingKey, null, null);
+        mFrameBitmap = null;
+        mFrameCrop = null;
+        mFrameKey = null;
+        mFrameOwner = null;
+        mLentBitmaps.clear();
+        if (mTrimCallbacks != null) {
+            mContext.unregisterComponentCallbacks(mTrimCallbacks);
+            mTrimCallbacks = null;
+        }
+        mBitmapPool.clear();
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+            mExecutor = null;
+        }
+        mStackBlurAlgorithm.release();
+        synchronized (this) {
+            if (mRenderScriptAlgorithm != null) {
+                mRenderScriptAlgorithm.release();
+                mRenderScriptAlgorithm = null;
+            }
+            mContext = null;
+        }
+    }
+
+    /**
+     * Lock to hold while using an algorithm out of ui thread.
+     */
+    Object getBlurLock() {
+        return mBlurLock;
+    }
+
+    StackBlurAlgorithm getStackBlurAlgorithm() {
+        return mStackBlurAlgorithm;
+    }
+
+    /**
+     * RenderScript objects, created on first RenderScript blur and kept until released.
+     */
+    synchronized RenderScriptBlurAlgorithm getRenderScriptAlgorithm() {
+        if (mRenderScriptAlgorithm == null) {
+            mRenderScriptAlgorithm = new RenderScriptBlurAlgorithm(mContext);
+        }
+        return mRenderScriptAlgorithm;
+    }
+
+    /**
+     * Executor running the blurs of every popup one at a time, since they share algorithms.
+     */
+    Executor getExecutor() {
+        if (mExecutor == null) {
+            mExecutor = new LatestBlurExecutor();
+        }
+        return mExecutor;
+    }
+
+    /**
+     * Bitmaps no longer used by the popups, reused by every stage of their blurs.
+     */
+    BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    int getDrawGeneration() {
+        return mDrawCounter.getGeneration();
+    }
+
+    /**
+     * Don't count the draws only redrawing the given view, typically to show it pressed.
+     * Each call must be balanced by a call to {@link #removeAnchor(View)}.
+     */
+    void addAnchor(View anchor) {
+        mDrawCounter.addAnchor(anchor);
+    }
+
+    void removeAnchor(View anchor) {
+        mDrawCounter.removeAnchor(anchor);
+    }
+
+    /**
+     * Keep a blurred background so that other popups can show it.
+     *
+     * @param owner engine which blurred it and may draw over it until it is lent
+     */
+    void publishFrame(Object owner, BlurKey key, Bitmap bitmap, Rect crop) {
+        mFrameOwner = owner != null ? new WeakReference<Object>(owner) : null;
+        mFrameKey = key;
+        mFrameBitmap = bitmap;
+        mFrameCrop = crop;
+    }
+
+    /**
+     * Forget the last blurred background if it is the given bitmap, which is going to be drawn
+     * over.
+     */
+    void forgetFrame(Bitmap bitmap) {
+        if (bitmap == mFrameBitmap) {
+            publishFrame(null, null, null, null);
+        }
+    }
+
+    /**
+     * Get the last blurred background if it has been blurred with the given key.
+     *
+     * @param requester engine which is going to show it
+     * @return bitmap, null if none matches
+     */
+    Bitmap takeFrame(Object requester, BlurKey key) {
+        if (mFrameBitmap == null || !key.equals(mFrameKey)) {
+            return null;
+        }
+        if (requester != get(mFrameOwner)) {
+            mLentBitmaps.put(mFrameBitmap, Boolean.TRUE);
+        }
+        return mFrameBitmap;
+    }
+
+    Rect getFrameCrop() {
+        return mFrameCrop;
+    }
+
+    BlurKey getFrameKey() {
+        return mFrameKey;
+    }
+
+    /**
+     * Tell whether a bitmap may be shown by several engines, none of them being allowed to
+     * draw over it.
+     */
+    boolean isLent(Bitmap bitmap) {
+        return mLentBitmaps.containsKey(bitmap);
+    }
+
+    /**
+     * Record the blur an engine starts, other engines needing the same one will wait for it.
+     * Popups waiting for a previous one are told it failed.
+     */
+    void startPending(Object owner, BlurKey key) {
+        finishPending(get(mPendingOwner), mPendingKey, null, null);
+        mPendingOwner = new WeakReference<Object>(owner);
+        mPendingKey = key;
+    }
+
+    /**
+     * Wait for the running blur if it has been started with the given key.
+     *
+     * @return true if callback will be notified
+     */
+    boolean joinPending(BlurKey key, FrameCallback callback) {
+        if (mPendingKey == null || !mPendingKey.equals(key) || get(mPendingOwner) == null) {
+            return false;
+        }
+        for (WeakReference<FrameCallback> waiting : mWaiting) {
+            if (waiting.get() == callback) {
+                return true;
+            }
+        }
+        mWaiting.add(new WeakReference<FrameCallback>(callback));
+        return true;
+    }
+
+    /**
+     * Stop waiting for the running blur.
+     */
+    void leavePending(FrameCallback callback) {
+        Iterator<WeakReference<FrameCallback>> waiting = mWaiting.iterator();
+        while (waiting.hasNext()) {
+            FrameCallback next = waiting.next().get();
+            if (next == null || next == callback) {
+                waiting.remove();
+            }
+        }
+    }
+
+    /**
+     * End a blur recorded by {@link #startPending(Object, BlurKey)}, publishing its result and
+     * notifying the popups waiting for it. Ignored if another blur has been recorded since.
+     *
+     * @param bitmap result, null if the blur failed or has been cancelled
+     */
+    void finishPending(Object owner, BlurKey key, Bitmap bitmap, Rect crop) {
+        if (owner == null || owner != get(mPendingOwner) || key != mPendingKey) {
+            return;
+        }
+        mPendingOwner = null;
+        mPendingKey = null;
+        if (bitmap != null) {
+            publishFrame(owner, key, bitmap, crop);
+        }
+        if (mWaiting.isEmpty()) {
+            return;
+        }
+        ArrayList<FrameCallback> waiting = new ArrayList<FrameCallback>(mWaiting.size());
+        for (WeakReference<FrameCallback> reference : mWaiting) {
+            FrameCallback callback = reference.get();
+            if (callback != null) {
+                waiting.add(callback);
+            }
+        }
+        mWaiting.clear();
+        for (FrameCallback callback : waiting) {
+            if (bitmap != null) {
+                mLentBitmaps.put(bitmap, Boolean.TRUE);
+            }
+            callback.onFrame(key, bitmap, crop);
+        }
+    }
+
+    private static <T> T get(WeakReference<T> reference) {
+        return reference != null ? reference.get() : null;
+    }
+
+    /**
+     * Views of the blurred hierarchy, as the draw counter sees them.
+     */
+    private static final class ViewHierarchy implements DrawCounter.Hierarchy<View> {
+
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+        @Override
+        public boolean isDirty(View view) {
+            return view.isDirty();
+        }
+
+        @Override
+        public int getChildCount(View view) {
+            return view instanceof ViewGroup ? ((ViewGroup) view).getChildCount() : 0;
+        }
+
+        @Override
+        public View getChildAt(View view, int index) {
+            return ((ViewGroup) view).getChildAt(index);
+        }
+    }
+}
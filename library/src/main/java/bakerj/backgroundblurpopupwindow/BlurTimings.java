@@ -0,0 +1,74 @@
+package bakerj.backgroundblurpopupwindow;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Blur durations measured in this process, used to correct the estimates of each
+ * {@link BlurAlgorithm} to the device it runs on.
+ * <p/>
+ * Shared by every popup, so that a popup shown for the first time already benefits from the
+ * blurs done by the previous ones.
+ */
+final class BlurTimings {
+
+    /**
+     * Weight of the last measure in the running average.
+     */
+    private static final double SMOOTHING = 0.3;
+
+    /**
+     * Measured duration divided by estimated one, per algorithm name.
+     */
+    private static final Map<String, Double> sRatios = new HashMap<>();
+
+    /**
+     * non instantiable helper
+     */
+    private BlurTimings() {
+
+    }
+
+    /**
+     * Record how long a blur took.
+     *
+     * @param algorithm   name of the algorithm which blurred
+     * @param estimatedNs duration estimated by the algorithm
+     * @param measuredNs  actual duration
+     */
+    static void record(String algorithm, long estimatedNs, long measuredNs) {
+        if (estimatedNs <= 0) {
+            return;
+        }
+        double ratio = measuredNs / (double) estimatedNs;
+        synchronized (sRatios) {
+            Double previous = sRatios.get(algorithm);
+            sRatios.put(algorithm, previous == null ? ratio
+                    : previous + SMOOTHING * (ratio - previous));
+        }
+    }
+
+    /**
+     * Correct the duration estimated by an algorithm with what has been measured so far.
+     *
+     * @param algorithm   name of the algorithm
+     * @param estimatedNs duration estimated by the algorithm
+     * @return expected duration, the estimate itself if nothing has been measured yet
+     */
+    static long predict(String algorithm, long estimatedNs) {
+        Double ratio;
+        synchronized (sRatios) {
+            ratio = sRatios.get(algorithm);
+        }
+        return ratio == null ? estimatedNs : (long) (estimatedNs * ratio);
+    }
+
+    /**
+     * Forget every measure.
+     */
+    static void clear() {
+        synchronized (sRatios) {
+            sRatios.clear();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package bakerj.backgroundblurpopupwindow;
+
+/**
+ * Triple box blur, see {@link BoxBlurKernel}.
+ * <p/>
+ * Cost doesn't depend on radius at all.
+ */
+public class BoxBlurAlgorithm extends PixelBlurAlgorithm {
+
+    /**
+     * Estimated cost of a pixel, in nanoseconds.
+     */
+    private static final int PIXEL_COST = 60;
+
+    private int[] mScratch;
+
+    @Override
+    public String getName() {
+        return "BoxBlur";
+    }
+
+    @Override
+    public boolean supportsRadius(int radius) {
+        return true;
+    }
+
+    @Override
+    public long estimateCost(int width, int height, int radius) {
+        return PIXEL_COST * (long) width * height;
+    }
+
+    @Override
+    protected void blur(int[] pixels, int width, int height, int radius,
+                        BlurCancellation cancellation) {
+        mScratch = obtainBuffer(mScratch, BoxBlurKernel.scratchSize(width, height));
+        BoxBlurKernel.blur(pixels, 0, width, width, height, radius, mScratch, cancellation);
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        mScratch = null;
+    }
+}
@@ -0,0 +1,149 @@
+package bakerj.backgroundblurpopupwindow;
+
+/**
+ * Triple box blur applied in place on a buffer of ARGB pixels.
+ * <p/>
+ * Three successive box blurs approximate a gaussian, each of them costing the same whatever
+ * its size, so large radii are as cheap as small ones. Radius follows the convention of
+ * {@link BlurAlgorithm}.
+ */
+public final class BoxBlurKernel {
+
+    /**
+     * Number of boxes approximating the gaussian.
+     */
+    static final int BOX_COUNT = 3;
+
+    /**
+     * non instantiable helper
+     */
+    private BoxBlurKernel() {
+
+    }
+
+    /**
+     * Number of entries the scratch buffer needs to blur a picture of the given size.
+     *
+     * @param width  picture width
+     * @param height picture height
+     * @return minimal size of the scratch buffer
+     */
+    public static int scratchSize(int width, int height) {
+        return width * height + 2 * Math.max(width, height);
+    }
+
+    /**
+     * blur a given pixel buffer in place
+     *
+     * @param pixels  ARGB pixels to blur, alpha channel is preserved
+     * @param offset  index of the first pixel to blur
+     * @param stride  number of entries between two rows, must be at least width
+     * @param width   number of pixels to blur in each row
+     * @param height  number of rows to blur
+     * @param radius  blur radius, nothing is done below 1
+     * @param scratch buffer of at least {@link #scratchSize(int, int)} entries
+     */
+    public static void blur(int[] pixels, int offset, int stride, int width, int height,
+                            int radius, int[] scratch) {
+        blur(pixels, offset, stride, width, height, radius, scratch, null);
+    }
+
+    /**
+     * blur a given pixel buffer in place, checking a cancellation token between bands
+     *
+     * @param pixels       ARGB pixels to blur, alpha channel is preserved
+     * @param offset       index of the first pixel to blur
+     * @param stride       number of entries between two rows, must be at least width
+     * @param width        number of pixels to blur in each row
+     * @param height       number of rows to blur
+     * @param radius       blur radius, nothing is done below 1
+     * @param scratch      buffer of at least {@link #scratchSize(int, int)} entries
+     * @param cancellation token checked between bands, may be null
+     * @throws java.util.concurrent.CancellationException if cancelled
+     */
+    public static void blur(int[] pixels, int offset, int stride, int width, int height,
+                            int radius, int[] scratch, BlurCancellation cancellation) {
+        if (radius < 1 || width < 1 || height < 1) {
+            return;
+        }
+        if (stride < width) {
+            throw new IllegalArgumentException("stride must be >= width");
+        }
+        if (offset < 0 || offset + (height - 1) * stride + width > pixels.length) {
+            throw new ArrayIndexOutOfBoundsException("pixels too small for given dimensions");
+        }
+        if (scratch.length < scratchSize(width, height)) {
+            throw new ArrayIndexOutOfBoundsException("scratch too small for given dimensions");
+        }
+        int[] radii = boxRadii(BlurAlgorithms.radiusToSigma(radius));
+        int[][] dv = new int[BOX_COUNT][];
+        for (int i = 0; i < BOX_COUNT; i++) {
+            dv[i] = StackBlurTables.quotientTable(radii[i] + radii[i] + 1);
+        }
+        // every box is applied to a line before moving to the next one, rows are stored
+        // transposed so that columns are then read from contiguous memory
+        int wh = width * height;
+        int lineA = wh;
+        int lineB = wh + Math.max(width, height);
+        for (int y = 0; y < height; y++) {
+            BlurCancellation.checkBand(cancellation, y);
+            box(pixels, offset + y * stride, 1, scratch, lineA, 1, width, radii[0], dv[0]);
+            box(scratch, lineA, 1, scratch, lineB, 1, width, radii[1], dv[1]);
+            box(scratch, lineB, 1, scratch, y, height, width, radii[2], dv[2]);
+        }
+        for (int x = 0; x < width; x++) {
+            BlurCancellation.checkBand(cancellation, x);
+            box(scratch, x * height, 1, scratch, lineA, 1, height, radii[0], dv[0]);
+            box(scratch, lineA, 1, scratch, lineB, 1, height, radii[1], dv[1]);
+            box(scratch, lineB, 1, pixels, offset + x, stride, height, radii[2], dv[2]);
+        }
+    }
+
+    /**
+     * Radii of the boxes whose succession has the given standard deviation.
+     */
+    static int[] boxRadii(float sigma) {
+        // see http://www.peterkovesi.com/papers/FastGaussianSmoothing.pdf
+        double ideal = Math.sqrt(12 * sigma * sigma / BOX_COUNT + 1);
+        int lower = (int) Math.floor(ideal);
+        if (lower % 2 == 0) {
+            lower--;
+        }
+        int upper = lower + 2;
+        double lowerCount = (12 * sigma * sigma - BOX_COUNT * lower * lower
+                - 4 * BOX_COUNT * lower - 3 * BOX_COUNT) / (-4.0 * lower - 4);
+        long m = Math.round(lowerCount);
+        int[] radii = new int[BOX_COUNT];
+        for (int i = 0; i < BOX_COUNT; i++) {
+            radii[i] = ((i < m ? lower : upper) - 1) / 2;
+        }
+        return radii;
+    }
+
+    /**
+     * Box blur a line of n pixels from src into dst, keeping the alpha of dst.
+     */
+    private static void box(int[] src, int srcStart, int srcStep, int[] dst, int dstStart,
+                            int dstStep, int n, int radius, int[] dv) {
+        int last = srcStart + (n - 1) * srcStep;
+        int rsum = 0, gsum = 0, bsum = 0;
+        for (int i = -radius; i <= radius; i++) {
+            int p = src[srcStart + Math.min(n - 1, Math.max(i, 0)) * srcStep];
+            rsum += (p >> 16) & 0xff;
+            gsum += (p >> 8) & 0xff;
+            bsum += p & 0xff;
+        }
+        int in = srcStart + (radius + 1) * srcStep;
+        int out = srcStart - radius * srcStep;
+        for (int i = 0, di = dstStart; i < n; i++, di += dstStep) {
+            dst[di] = (dst[di] & 0xff000000) | (dv[rsum] << 16) | (dv[gsum] << 8) | dv[bsum];
+            int pIn = src[in < last ? in : last];
+            int pOut = src[out > srcStart ? out : srcStart];
+            rsum += ((pIn >> 16) & 0xff) - ((pOut >> 16) & 0xff);
+            gsum += ((pIn >> 8) & 0xff) - ((pOut >> 8) & 0xff);
+            bsum += (pIn & 0xff) - (pOut & 0xff);
+            in += srcStep;
+            out += srcStep;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package bakerj.backgroundblurpopupwindow;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Draws a part of a bitmap stretched over its whole bounds.
+ * <p/>
+ * Blurred backgrounds are captured with a margin, blurring the edges with the pixels around
+ * them, then only the area behind the popup is shown. Has no intrinsic size, so that an
+ * ImageView using {@link android.widget.ImageView.ScaleType#FIT_XY} fills itself with it.
+ */
+class CroppedBitmapDrawable extends Drawable {
+
+    private final Bitmap mBitmap;
+    private final Rect mSource;
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+
+    /**
+     * Constructor.
+     *
+     * @param bitmap bitmap to draw.
+     * @param source part of the bitmap to draw, null for the whole bitmap.
+     */
+    CroppedBitmapDrawable(Bitmap bitmap, Rect source) {
+        mBitmap = bitmap;
+        mSource = source == null ? null : new Rect(source);
+    }
+
+    Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        canvas.drawBitmap(mBitmap, mSource, getBounds(), mPaint);
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        if (mPaint.getAlpha() != alpha) {
+            mPaint.setAlpha(alpha);
+            invalidateSelf();
+        }
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        mPaint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return mBitmap.hasAlpha() || mPaint.getAlpha() < 255 ? PixelFormat.TRANSLUCENT
+                : PixelFormat.OPAQUE;
+    }
+}
@@ -0,0 +1,101 @@
+package bakerj.backgroundblurpopupwindow;
+
+/**
+ * Find what changed between two captures of the background, so that live blur only blurs
+ * again the area around it.
+ * <p/>
+ * Bounds are stored as left, top, right and bottom in an int array, right and bottom being
+ * exclusive. Doesn't rely on any android class so it can be run and tested on a plain JVM.
+ */
+final class DirtyRegion {
+
+    static final int LEFT = 0;
+    static final int TOP = 1;
+    static final int RIGHT = 2;
+    static final int BOTTOM = 3;
+
+    /**
+     * non instantiable helper
+     */
+    private DirtyRegion() {
+
+    }
+
+    /**
+     * Compute the bounds of the pixels which differ between two dense buffers.
+     *
+     * @param previous pixels of the previous capture
+     * @param current  pixels of the new capture
+     * @param width    number of pixels in each row
+     * @param height   number of rows
+     * @param bounds   filled with the bounds of the changes, left as is if there is none
+     * @return true if any pixel changed
+     */
+    static boolean find(int[] previous, int[] current, int width, int height, int[] bounds) {
+        int top = 0;
+        while (top < height && sameRow(previous, current, top * width, width)) {
+            top++;
+        }
+        if (top == height) {
+            return false;
+        }
+        int bottom = height;
+        while (sameRow(previous, current, (bottom - 1) * width, width)) {
+            bottom--;
+        }
+        int left = width;
+        int right = 0;
+        for (int y = top; y < bottom; y++) {
+            int row = y * width;
+            for (int x = 0; x < left; x++) {
+                if (previous[row + x] != current[row + x]) {
+                    left = x;
+                    break;
+                }
+            }
+            for (int x = width - 1; x >= right; x--) {
+                if (previous[row + x] != current[row + x]) {
+                    right = x + 1;
+                    break;
+                }
+            }
+        }
+        bounds[LEFT] = left;
+        bounds[TOP] = top;
+        bounds[RIGHT] = right;
+        bounds[BOTTOM] = bottom;
+        return true;
+    }
+
+    /**
+     * Grow bounds by a margin on every side, without leaving the buffer.
+     *
+     * @param bounds bounds to grow
+     * @param margin number of pixels added on each side
+     * @param width  number of pixels in each row
+     * @param height number of rows
+     * @param out    filled with the grown bounds, may be bounds itself
+     */
+    static void expand(int[] bounds, int margin, int width, int height, int[] out) {
+        out[LEFT] = Math.max(0, bounds[LEFT] - margin);
+        out[TOP] = Math.max(0, bounds[TOP] - margin);
+        out[RIGHT] = Math.min(width, bounds[RIGHT] + margin);
+        out[BOTTOM] = Math.min(height, bounds[BOTTOM] + margin);
+    }
+
+    /**
+     * Number of pixels within bounds.
+     */
+    static int area(int[] bounds) {
+        return (bounds[RIGHT] - bounds[LEFT]) * (bounds[BOTTOM] - bounds[TOP]);
+    }
+
+    private static boolean sameRow(int[] previous, int[] current, int row, int width) {
+        for (int i = row, end = row + width; i < end; i++) {
+            if (previous[i] != current[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,107 @@
+package bakerj.backgroundblurpopupwindow;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Count the draws of the blurred view hierarchy, a captured background being up to date as
+ * long as the count doesn't change.
+ * <p/>
+ * Draws which only redraw anchors, the views opening popups, aren't counted, so that their
+ * pressed state doesn't prevent opening a popup again over the last blurred background. Any
+ * other view drawn along with them makes the draw count. Doesn't rely on any android class so
+ * it can be run and tested on a plain JVM.
+ *
+ * @param <V> type of the views
+ */
+final class DrawCounter<V> {
+
+    /**
+     * Access to the views of the hierarchy.
+     */
+    interface Hierarchy<V> {
+
+        /**
+         * @return true if the view, or one of its descendants, has been invalidated since its
+         * last draw
+         */
+        boolean isDirty(V view);
+
+        /**
+         * @return number of children, 0 for a view which isn't a group
+         */
+        int getChildCount(V view);
+
+        V getChildAt(V view, int index);
+    }
+
+    private final Hierarchy<V> mHierarchy;
+
+    /**
+     * Anchors of the popups, weakly referenced, with the number of popups they open.
+     */
+    private final Map<V, Integer> mAnchors = new WeakHashMap<V, Integer>();
+
+    private int mGeneration;
+
+    DrawCounter(Hierarchy<V> hierarchy) {
+        mHierarchy = hierarchy;
+    }
+
+    void addAnchor(V anchor) {
+        Integer count = mAnchors.get(anchor);
+        mAnchors.put(anchor, count != null ? count + 1 : 1);
+    }
+
+    void removeAnchor(V anchor) {
+        Integer count = mAnchors.get(anchor);
+        if (count == null || count == 1) {
+            mAnchors.remove(anchor);
+        } else {
+            mAnchors.put(anchor, count - 1);
+        }
+    }
+
+    /**
+     * Record a draw of the hierarchy, before its views are drawn.
+     *
+     * @param root root of the drawn hierarchy, null to count the draw whatever is dirty
+     */
+    void onDraw(V root) {
+        if (root == null || mAnchors.isEmpty() || !onlyAnchorsDirty(root)) {
+            mGeneration++;
+        }
+    }
+
+    /**
+     * @return number of draws counted so far
+     */
+    int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Tell whether every dirty view under the given one belongs to an anchor.
+     * <p/>
+     * Invalidating a view marks its ancestors dirty, so only the dirty children of a group
+     * are visited. A group none of whose children is dirty has been invalidated itself, or
+     * redrawn for a reason the flags don't tell, as a property animation.
+     */
+    boolean onlyAnchorsDirty(V view) {
+        if (mAnchors.containsKey(view)) {
+            return true;
+        }
+        int count = mHierarchy.getChildCount(view);
+        boolean dirtyChild = false;
+        for (int i = 0; i < count; i++) {
+            V child = mHierarchy.getChildAt(view, i);
+            if (child != null && mHierarchy.isDirty(child)) {
+                if (!onlyAnchorsDirty(child)) {
+                    return false;
+                }
+                dirtyChild = true;
+            }
+        }
+        return dirtyChild;
+    }
+}
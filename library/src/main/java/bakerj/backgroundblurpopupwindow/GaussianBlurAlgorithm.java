@@ -0,0 +1,45 @@
+package bakerj.backgroundblurpopupwindow;
+
+/**
+ * Separable gaussian blur, see {@link GaussianBlurKernel}.
+ * <p/>
+ * Best quality, but cost grows linearly with radius.
+ */
+public class GaussianBlurAlgorithm extends PixelBlurAlgorithm {
+
+    /**
+     * Estimated cost of a tap, both passes included, in nanoseconds.
+     */
+    private static final int TAP_COST = 7;
+
+    private int[] mScratch;
+
+    @Override
+    public String getName() {
+        return "GaussianBlur";
+    }
+
+    @Override
+    public boolean supportsRadius(int radius) {
+        return true;
+    }
+
+    @Override
+    public long estimateCost(int width, int height, int radius) {
+        int taps = 2 * GaussianBlurKernel.kernelRadius(BlurAlgorithms.radiusToSigma(radius)) + 1;
+        return TAP_COST * (long) taps * width * height;
+    }
+
+    @Override
+    protected void blur(int[] pixels, int width, int height, int radius,
+                        BlurCancellation cancellation) {
+        mScratch = obtainBuffer(mScratch, width * height);
+        GaussianBlurKernel.blur(pixels, 0, width, width, height, radius, mScratch, cancellation);
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        mScratch = null;
+    }
+}
@@ -0,0 +1,194 @@
+package bakerj.backgroundblurpopupwindow;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Separable gaussian blur applied in place on a buffer of ARGB pixels.
+ * <p/>
+ * Closest to the blur done by RenderScript, but each pixel costs a tap per unit of radius.
+ * Weights are 16 bits fixed point summing exactly to one, so uniform areas stay uniform.
+ * Radius follows the convention of {@link BlurAlgorithm}.
+ */
+public final class GaussianBlurKernel {
+
+    /**
+     * Weights are stored multiplied by this value.
+     */
+    private static final int ONE = 1 << 16;
+
+    /**
+     * Number of radii whose weights are kept.
+     */
+    private static final int MAX_CACHED_WEIGHTS = 8;
+
+    /**
+     * Weights of the last radii, in least recently used order, shared by every blur.
+     */
+    private static final Map<Integer, int[]> sWeights =
+            new LinkedHashMap<Integer, int[]>(MAX_CACHED_WEIGHTS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, int[]> eldest) {
+                    return size() > MAX_CACHED_WEIGHTS;
+                }
+            };
+
+    /**
+     * non instantiable helper
+     */
+    private GaussianBlurKernel() {
+
+    }
+
+    /**
+     * blur a given pixel buffer in place
+     *
+     * @param pixels  ARGB pixels to blur, alpha channel is preserved
+     * @param offset  index of the first pixel to blur
+     * @param stride  number of entries between two rows, must be at least width
+     * @param width   number of pixels to blur in each row
+     * @param height  number of rows to blur
+     * @param radius  blur radius, nothing is done below 1
+     * @param scratch buffer of at least width * height entries
+     */
+    public static void blur(int[] pixels, int offset, int stride, int width, int height,
+                            int radius, int[] scratch) {
+        blur(pixels, offset, stride, width, height, radius, scratch, null);
+    }
+
+    /**
+     * blur a given pixel buffer in place, checking a cancellation token between bands
+     *
+     * @param pixels       ARGB pixels to blur, alpha channel is preserved
+     * @param offset       index of the first pixel to blur
+     * @param stride       number of entries between two rows, must be at least width
+     * @param width        number of pixels to blur in each row
+     * @param height       number of rows to blur
+     * @param radius       blur radius, nothing is done below 1
+     * @param scratch      buffer of at least width * height entries
+     * @param cancellation token checked between bands, may be null
+     * @throws java.util.concurrent.CancellationException if cancelled
+     */
+    public static void blur(int[] pixels, int offset, int stride, int width, int height,
+                            int radius, int[] scratch, BlurCancellation cancellation) {
+        if (radius < 1 || width < 1 || height < 1) {
+            return;
+        }
+        if (stride < width) {
+            throw new IllegalArgumentException("stride must be >= width");
+        }
+        if (offset < 0 || offset + (height - 1) * stride + width > pixels.length) {
+            throw new ArrayIndexOutOfBoundsException("pixels too small for given dimensions");
+        }
+        if (scratch.length < width * height) {
+            throw new ArrayIndexOutOfBoundsException("scratch too small for given dimensions");
+        }
+        int[] weights = cachedWeights(radius);
+        blurRows(pixels, offset, stride, width, height, weights, scratch, cancellation);
+        blurColumns(scratch, pixels, offset, stride, width, height, weights, cancellation);
+    }
+
+    /**
+     * Number of taps on each side of the center pixel for the given standard deviation.
+     */
+    static int kernelRadius(float sigma) {
+        return (int) Math.ceil(3 * sigma);
+    }
+
+    /**
+     * Weights of a radius, built on first use, must not be modified.
+     */
+    static int[] cachedWeights(int radius) {
+        synchronized (sWeights) {
+            int[] weights = sWeights.get(radius);
+            if (weights == null) {
+                weights = weights(BlurAlgorithms.radiusToSigma(radius));
+                sWeights.put(radius, weights);
+            }
+            return weights;
+        }
+    }
+
+    /**
+     * Fixed point weights from the center tap outward, summing to {@link #ONE} over both sides.
+     */
+    static int[] weights(float sigma) {
+        int k = kernelRadius(sigma);
+        double[] gauss = new double[k + 1];
+        double total = 0;
+        for (int i = 0; i <= k; i++) {
+            gauss[i] = Math.exp(-i * i / (2.0 * sigma * sigma));
+            total += i == 0 ? gauss[i] : 2 * gauss[i];
+        }
+        int[] weights = new int[k + 1];
+        int sum = 0;
+        for (int i = 1; i <= k; i++) {
+            weights[i] = (int) Math.round(gauss[i] / total * ONE);
+            sum += 2 * weights[i];
+        }
+        // rounding errors go to the center tap
+        weights[0] = ONE - sum;
+        return weights;
+    }
+
+    /**
+     * Blur every row of pix into the dense packed RGB buffer out.
+     */
+    private static void blurRows(int[] pix, int offset, int stride, int w, int h, int[] weights,
+                                 int[] out, BlurCancellation cancellation) {
+        int k = weights.length - 1;
+        int wm = w - 1;
+        for (int y = 0; y < h; y++) {
+            BlurCancellation.checkBand(cancellation, y);
+            int row = offset + y * stride;
+            int yi = y * w;
+            for (int x = 0; x < w; x++) {
+                int p = pix[row + x];
+                int weight = weights[0];
+                int r = ((p >> 16) & 0xff) * weight;
+                int g = ((p >> 8) & 0xff) * weight;
+                int b = (p & 0xff) * weight;
+                for (int i = 1; i <= k; i++) {
+                    weight = weights[i];
+                    int left = pix[row + Math.max(0, x - i)];
+                    int right = pix[row + Math.min(wm, x + i)];
+                    r += (((left >> 16) & 0xff) + ((right >> 16) & 0xff)) * weight;
+                    g += (((left >> 8) & 0xff) + ((right >> 8) & 0xff)) * weight;
+                    b += ((left & 0xff) + (right & 0xff)) * weight;
+                }
+                out[yi + x] = (((r + (ONE >> 1)) >> 16) << 16) | (((g + (ONE >> 1)) >> 16) << 8)
+                        | ((b + (ONE >> 1)) >> 16);
+            }
+        }
+    }
+
+    /**
+     * Blur every column of the dense packed RGB buffer in back into pix, keeping its alpha.
+     */
+    private static void blurColumns(int[] in, int[] pix, int offset, int stride, int w, int h,
+                                    int[] weights, BlurCancellation cancellation) {
+        int k = weights.length - 1;
+        int hm = h - 1;
+        for (int y = 0; y < h; y++) {
+            BlurCancellation.checkBand(cancellation, y);
+            int row = offset + y * stride;
+            for (int x = 0; x < w; x++) {
+                int p = in[y * w + x];
+                int weight = weights[0];
+                int r = ((p >> 16) & 0xff) * weight;
+                int g = ((p >> 8) & 0xff) * weight;
+                int b = (p & 0xff) * weight;
+                for (int i = 1; i <= k; i++) {
+                    weight = weights[i];
+                    int top = in[Math.max(0, y - i) * w + x];
+                    int bottom = in[Math.min(hm, y + i) * w + x];
+                    r += (((top >> 16) & 0xff) + ((bottom >> 16) & 0xff)) * weight;
+                    g += (((top >> 8) & 0xff) + ((bottom >> 8) & 0xff)) * weight;
+                    b += ((top & 0xff) + (bottom & 0xff)) * weight;
+                }
+                pix[row + x] = (pix[row + x] & 0xff000000) | (((r + (ONE >> 1)) >> 16) << 16)
+                        | (((g + (ONE >> 1)) >> 16) << 8) | ((b + (ONE >> 1)) >> 16);
+            }
+        }
+    }
+}
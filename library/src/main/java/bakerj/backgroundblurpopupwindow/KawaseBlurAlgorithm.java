@@ -0,0 +1,64 @@
+package bakerj.backgroundblurpopupwindow;
+
+/**
+ * Dual Kawase blur, see {@link KawaseBlurKernel}.
+ * <p/>
+ * Cost doesn't depend on radius, but only the radii close to the strength of a whole number
+ * of iterations are supported.
+ */
+public class KawaseBlurAlgorithm extends PixelBlurAlgorithm {
+
+    /**
+     * Estimated cost of a pixel, in nanoseconds.
+     */
+    private static final int PIXEL_COST = 80;
+
+    /**
+     * Largest relative difference between the wanted standard deviation and the reached one.
+     */
+    private static final float TOLERANCE = 0.25f;
+
+    private final int[][] mLevels = new int[KawaseBlurKernel.MAX_ITERATIONS][];
+
+    @Override
+    public String getName() {
+        return "KawaseBlur";
+    }
+
+    @Override
+    public boolean supportsRadius(int radius) {
+        float sigma = BlurAlgorithms.radiusToSigma(radius);
+        float reached = KawaseBlurKernel.sigma(KawaseBlurKernel.iterations(sigma));
+        return Math.abs(reached - sigma) <= TOLERANCE * sigma;
+    }
+
+    @Override
+    public long estimateCost(int width, int height, int radius) {
+        return PIXEL_COST * (long) width * height;
+    }
+
+    @Override
+    protected void blur(int[] pixels, int width, int height, int radius,
+                        BlurCancellation cancellation) {
+        int iterations = KawaseBlurKernel.iterations(BlurAlgorithms.radiusToSigma(radius));
+        int[][] previous = mLevels.clone();
+        try {
+            KawaseBlurKernel.blur(pixels, 0, width, width, height, iterations, mLevels,
+                    cancellation);
+        } finally {
+            for (int i = 0; i < mLevels.length; i++) {
+                if (mLevels[i] != previous[i]) {
+                    addAllocatedBytes(mLevels[i].length * 4L);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        for (int i = 0; i < mLevels.length; i++) {
+            mLevels[i] = null;
+        }
+    }
+}
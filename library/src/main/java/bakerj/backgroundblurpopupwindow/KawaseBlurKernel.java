@@ -0,0 +1,236 @@
+package bakerj.backgroundblurpopupwindow;
+
+/**
+ * Dual Kawase blur applied in place on a buffer of ARGB pixels.
+ * <p/>
+ * Picture is halved a given number of times then scaled back up, each step reading a few
+ * bilinear samples. Samples being taken at quarter pixel positions, each step boils down to
+ * fixed integer weights over a 4 x 4 block. Blur strength grows exponentially with iterations
+ * while cost stays close to a single full resolution pass, which makes it the cheapest way to
+ * reach very large radii.
+ * Only a few strengths are reachable, see {@link #sigma(int)}.
+ */
+public final class KawaseBlurKernel {
+
+    /**
+     * Most iterations supported.
+     */
+    public static final int MAX_ITERATIONS = 6;
+
+    /**
+     * Standard deviation of the blur for each number of iterations, measured on an impulse.
+     */
+    private static final float[] SIGMAS = {0f, 1.77f, 3.80f, 7.70f, 15.38f, 30.80f, 62.84f};
+
+    /**
+     * Weights of the 4 x 4 block read by {@link #upSample} for each parity of the output pixel,
+     * (y & 1) * 2 + (x & 1), row after row, summing to 192.
+     */
+    private static final int[][] UP_WEIGHTS = upWeights();
+
+    /**
+     * non instantiable helper
+     */
+    private KawaseBlurKernel() {
+
+    }
+
+    /**
+     * Standard deviation of the blur done with the given number of iterations.
+     *
+     * @param iterations between 0 and {@link #MAX_ITERATIONS}
+     * @return standard deviation, in pixels
+     */
+    public static float sigma(int iterations) {
+        return SIGMAS[iterations];
+    }
+
+    /**
+     * Number of iterations whose blur is the closest to the given standard deviation.
+     *
+     * @param sigma wanted standard deviation, in pixels
+     * @return between 1 and {@link #MAX_ITERATIONS}
+     */
+    public static int iterations(float sigma) {
+        int best = 1;
+        for (int i = 2; i <= MAX_ITERATIONS; i++) {
+            if (Math.abs(SIGMAS[i] - sigma) < Math.abs(SIGMAS[best] - sigma)) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * blur a given pixel buffer in place
+     *
+     * @param pixels     ARGB pixels to blur, alpha channel is preserved
+     * @param offset     index of the first pixel to blur
+     * @param stride     number of entries between two rows, must be at least width
+     * @param width      number of pixels to blur in each row
+     * @param height     number of rows to blur
+     * @param iterations number of times the picture is halved, at most {@link #MAX_ITERATIONS}
+     * @param levels     at least iterations entries, grown as needed and kept for next blurs
+     */
+    public static void blur(int[] pixels, int offset, int stride, int width, int height,
+                            int iterations, int[][] levels) {
+        blur(pixels, offset, stride, width, height, iterations, levels, null);
+    }
+
+    /**
+     * blur a given pixel buffer in place, checking a cancellation token between bands
+     *
+     * @param pixels       ARGB pixels to blur, alpha channel is preserved
+     * @param offset       index of the first pixel to blur
+     * @param stride       number of entries between two rows, must be at least width
+     * @param width        number of pixels to blur in each row
+     * @param height       number of rows to blur
+     * @param iterations   number of times the picture is halved, at most
+     *                     {@link #MAX_ITERATIONS}
+     * @param levels       at least iterations entries, grown as needed and kept for next blurs
+     * @param cancellation token checked between bands, may be null
+     * @throws java.util.concurrent.CancellationException if cancelled
+     */
+    public static void blur(int[] pixels, int offset, int stride, int width, int height,
+                            int iterations, int[][] levels, BlurCancellation cancellation) {
+        if (iterations < 1 || width < 1 || height < 1) {
+            return;
+        }
+        int[] widths = new int[iterations + 1];
+        int[] heights = new int[iterations + 1];
+        widths[0] = width;
+        heights[0] = height;
+        for (int i = 1; i <= iterations; i++) {
+            widths[i] = Math.max(1, (widths[i - 1] + 1) / 2);
+            heights[i] = Math.max(1, (heights[i - 1] + 1) / 2);
+            int size = widths[i] * heights[i];
+            if (levels[i - 1] == null || levels[i - 1].length < size) {
+                levels[i - 1] = new int[size];
+            }
+        }
+        downSample(pixels, offset, stride, width, height, levels[0], widths[1], heights[1],
+                cancellation);
+        for (int i = 1; i < iterations; i++) {
+            downSample(levels[i - 1], 0, widths[i], widths[i], heights[i],
+                    levels[i], widths[i + 1], heights[i + 1], cancellation);
+        }
+        for (int i = iterations - 1; i > 0; i--) {
+            upSample(levels[i], widths[i + 1], heights[i + 1],
+                    levels[i - 1], 0, widths[i], widths[i], heights[i], cancellation);
+        }
+        upSample(levels[0], widths[1], heights[1], pixels, offset, stride, width, height,
+                cancellation);
+    }
+
+    /**
+     * Halve src into dst.
+     * <p/>
+     * Center bilinear sample weighted 4 and 4 diagonal ones, one pixel away, add up to the
+     * 4 x 4 block around the output pixel with its 2 x 2 center weighted 5 times, over 32.
+     */
+    private static void downSample(int[] src, int offset, int stride, int w, int h,
+                                   int[] dst, int dw, int dh, BlurCancellation cancellation) {
+        int wm = w - 1;
+        int hm = h - 1;
+        for (int y = 0; y < dh; y++) {
+            BlurCancellation.checkBand(cancellation, y);
+            int y0 = offset + Math.max(0, 2 * y - 1) * stride;
+            int y1 = offset + Math.min(hm, 2 * y) * stride;
+            int y2 = offset + Math.min(hm, 2 * y + 1) * stride;
+            int y3 = offset + Math.min(hm, 2 * y + 2) * stride;
+            for (int x = 0; x < dw; x++) {
+                int x0 = Math.max(0, 2 * x - 1);
+                int x1 = Math.min(wm, 2 * x);
+                int x2 = Math.min(wm, 2 * x + 1);
+                int x3 = Math.min(wm, 2 * x + 2);
+                long center = spread(src[y1 + x1]) + spread(src[y1 + x2])
+                        + spread(src[y2 + x1]) + spread(src[y2 + x2]);
+                long ring = spread(src[y0 + x0]) + spread(src[y0 + x1])
+                        + spread(src[y0 + x2]) + spread(src[y0 + x3])
+                        + spread(src[y1 + x0]) + spread(src[y1 + x3])
+                        + spread(src[y2 + x0]) + spread(src[y2 + x3])
+                        + spread(src[y3 + x0]) + spread(src[y3 + x1])
+                        + spread(src[y3 + x2]) + spread(src[y3 + x3]);
+                dst[y * dw + x] = pack(5 * center + ring, 32);
+            }
+        }
+    }
+
+    /**
+     * Double src into dst, keeping the alpha of dst.
+     * <p/>
+     * 4 bilinear samples along the axis, two pixels away, and 4 diagonal ones weighted 2, one
+     * pixel away, add up to a 4 x 4 block of src whose weights only depend on the parity of
+     * the output pixel, see {@link #UP_WEIGHTS}.
+     */
+    private static void upSample(int[] src, int w, int h, int[] dst, int offset, int stride,
+                                 int dw, int dh, BlurCancellation cancellation) {
+        int wm = w - 1;
+        int hm = h - 1;
+        for (int y = 0; y < dh; y++) {
+            BlurCancellation.checkBand(cancellation, y);
+            int top = (y - 3) >> 1;
+            int y0 = Math.max(0, top) * w;
+            int y1 = Math.min(hm, Math.max(0, top + 1)) * w;
+            int y2 = Math.min(hm, Math.max(0, top + 2)) * w;
+            int y3 = Math.min(hm, top + 3) * w;
+            int row = offset + y * stride;
+            for (int x = 0; x < dw; x++) {
+                int left = (x - 3) >> 1;
+                int x0 = Math.max(0, left);
+                int x1 = Math.min(wm, Math.max(0, left + 1));
+                int x2 = Math.min(wm, Math.max(0, left + 2));
+                int x3 = Math.min(wm, left + 3);
+                int[] k = UP_WEIGHTS[((y & 1) << 1) | (x & 1)];
+                long sum = spread(src[y0 + x0]) * k[0] + spread(src[y0 + x1]) * k[1]
+                        + spread(src[y0 + x2]) * k[2] + spread(src[y0 + x3]) * k[3]
+                        + spread(src[y1 + x0]) * k[4] + spread(src[y1 + x1]) * k[5]
+                        + spread(src[y1 + x2]) * k[6] + spread(src[y1 + x3]) * k[7]
+                        + spread(src[y2 + x0]) * k[8] + spread(src[y2 + x1]) * k[9]
+                        + spread(src[y2 + x2]) * k[10] + spread(src[y2 + x3]) * k[11]
+                        + spread(src[y3 + x0]) * k[12] + spread(src[y3 + x1]) * k[13]
+                        + spread(src[y3 + x2]) * k[14] + spread(src[y3 + x3]) * k[15];
+                dst[row + x] = (dst[row + x] & 0xff000000) | pack(sum, 192);
+            }
+        }
+    }
+
+    private static int[][] upWeights() {
+        // 1D weights of the center, axis and diagonal bilinear samples, out of 4 per sample,
+        // for even and odd output pixels
+        int[][] center = {{0, 1, 3, 0}, {0, 3, 1, 0}};
+        int[][] axis = {{1, 3, 1, 3}, {3, 1, 3, 1}};
+        int[][] diagonal = {{0, 3, 4, 1}, {1, 4, 3, 0}};
+        int[][] weights = new int[4][16];
+        for (int py = 0; py < 2; py++) {
+            for (int px = 0; px < 2; px++) {
+                for (int j = 0; j < 4; j++) {
+                    for (int i = 0; i < 4; i++) {
+                        weights[(py << 1) | px][j * 4 + i] = axis[px][i] * center[py][j]
+                                + center[px][i] * axis[py][j]
+                                + 2 * diagonal[px][i] * diagonal[py][j];
+                    }
+                }
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Spread channels 20 bits apart so that weighted pixels can be summed at once.
+     */
+    private static long spread(int p) {
+        return ((long) ((p >> 16) & 0xff) << 40) | ((long) ((p >> 8) & 0xff) << 20) | (p & 0xff);
+    }
+
+    /**
+     * Divide every channel of a sum of samples, rounding to nearest, and pack them as RGB.
+     */
+    private static int pack(long sum, int divisor) {
+        int half = divisor >> 1;
+        int r = (int) ((sum >> 40) & 0xfffff);
+        int g = (int) ((sum >> 20) & 0xfffff);
+        int b = (int) (sum & 0xfffff);
+        return ((r + half) / divisor << 16) | ((g + half) / divisor << 8) | ((b + half) / divisor);
+    }
+}
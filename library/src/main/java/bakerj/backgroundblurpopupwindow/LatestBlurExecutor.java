@@ -0,0 +1,166 @@
+package bakerj.backgroundblurpopupwindow;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor running blurs one at a time on its own thread, so that they neither wait for nor
+ * delay the other background work of the app.
+ * <p/>
+ * At most one blur per owner waits while another one runs: executing a new one drops the
+ * waiting one of the same owner, only its latest request matters. Owners, typically the
+ * popups sharing the executor, never drop each other's blurs, which run in the order they
+ * were first queued. Dropped commands which are {@link Future}s, as the ones of an AsyncTask,
+ * are cancelled so that their owner hears about it. Commands executed without owner, through
+ * {@link #execute(Runnable)}, are never dropped.
+ * <p/>
+ * Thread stops after a few seconds without blur.
+ */
+public final class LatestBlurExecutor implements Executor {
+
+    /**
+     * Idle time after which the thread stops, in seconds.
+     */
+    private static final int KEEP_ALIVE_SECONDS = 10;
+
+    private static final AtomicInteger sCount = new AtomicInteger();
+
+    private final ThreadPoolExecutor mWorker;
+
+    /**
+     * Latest command of each owner waiting for the running one to finish, guarded by this.
+     */
+    private final LinkedHashMap<Object, Runnable> mPending =
+            new LinkedHashMap<Object, Runnable>();
+
+    /**
+     * Whether mDrain is queued or running on the worker, guarded by this.
+     */
+    private boolean mDraining;
+
+    /**
+     * Run the pending command, then hand itself to the worker again until there is none left.
+     */
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            Runnable command;
+            synchronized (LatestBlurExecutor.this) {
+                Iterator<Runnable> pending = mPending.values().iterator();
+                if (!pending.hasNext()) {
+                    mDraining = false;
+                    return;
+                }
+                command = pending.next();
+                pending.remove();
+            }
+            try {
+                command.run();
+            } finally {
+                // next round is queued even if the command threw, its thread being replaced
+                try {
+                    mWorker.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // shut down meanwhile, waiting commands have been dropped
+                    synchronized (LatestBlurExecutor.this) {
+                        mDraining = false;
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * Constructor, thread is started on first blur.
+     */
+    public LatestBlurExecutor() {
+        mWorker = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Blur #" + sCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mWorker.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Run a command once the ones waiting are done, without dropping any of them.
+     *
+     * @param command command to run
+     * @see #forOwner(Object)
+     */
+    @Override
+    public void execute(Runnable command) {
+        // an owner of its own, no later command replaces it
+        execute(new Object(), command);
+    }
+
+    /**
+     * Run a command once the running one is done, dropping the one of the same owner which
+     * may be waiting.
+     *
+     * @param owner   object the command is run for, compared with equals
+     * @param command command to run
+     */
+    public void execute(Object owner, Runnable command) {
+        if (owner == null || command == null) {
+            throw new NullPointerException("owner and command must not be null");
+        }
+        Runnable dropped;
+        synchronized (this) {
+            // an owner already waiting keeps its place
+            dropped = mPending.put(owner, command);
+            if (!mDraining) {
+                mDraining = true;
+                mWorker.execute(mDrain);
+            }
+        }
+        if (dropped instanceof Future) {
+            ((Future<?>) dropped).cancel(false);
+        }
+    }
+
+    /**
+     * Drop the waiting command, if any, and stop the thread once the running one is done.
+     * Commands executed afterward are rejected.
+     */
+    public void shutdown() {
+        Runnable[] dropped;
+        synchronized (this) {
+            dropped = mPending.values().toArray(new Runnable[mPending.size()]);
+            mPending.clear();
+        }
+        for (Runnable command : dropped) {
+            if (command instanceof Future) {
+                ((Future<?>) command).cancel(false);
+            }
+        }
+        mWorker.shutdown();
+    }
+
+    /**
+     * Get an executor running commands for the given owner on this one.
+     *
+     * @param owner object the commands are run for, compared with equals
+     * @return executor dropping only the waiting commands of owner
+     */
+    public Executor forOwner(final Object owner) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                LatestBlurExecutor.this.execute(owner, command);
+            }
+        };
+    }
+}
@@ -0,0 +1,221 @@
+package bakerj.backgroundblurpopupwindow;
+
+/**
+ * Stack blur giving the same result as {@link StackBlurKernel} with a smaller working set.
+ * <p/>
+ * The horizontal pass stores its result as packed RGB ints in a transposed buffer instead of
+ * three planes, so the vertical pass reads each column from contiguous memory. The stack is a
+ * flat ring of packed pixels.
+ */
+public final class PackedStackBlurKernel {
+
+    /**
+     * non instantiable helper
+     */
+    private PackedStackBlurKernel() {
+
+    }
+
+    /**
+     * blur a given pixel buffer in place, reusing the scratch buffers of a context
+     *
+     * @see StackBlurKernel#blur(int[], int, int, int, int, int, StackBlurContext)
+     */
+    public static void blur(int[] pixels, int offset, int stride, int width, int height,
+                            int radius, StackBlurContext context) {
+        if (radius < 1 || width < 1 || height < 1) {
+            return;
+        }
+        if (stride < width) {
+            throw new IllegalArgumentException("stride must be >= width");
+        }
+        if (offset < 0 || offset + (height - 1) * stride + width > pixels.length) {
+            throw new ArrayIndexOutOfBoundsException("pixels too small for given dimensions");
+        }
+        context.preparePacked(width, height, radius);
+        // buffers are taken once, the context may be released while the blur runs
+        int[] transposed = context.transposed;
+        int[] hmin = context.hmin;
+        int[] dv = context.dv;
+        int[] stack = context.packedStack;
+        BlurCancellation cancellation = context.cancellation;
+        blurRows(pixels, offset, stride, width, height, radius, transposed, hmin, dv, stack,
+                cancellation, 0, height);
+        blurColumns(pixels, offset, stride, width, height, radius, transposed, dv, stack,
+                cancellation, 0, width);
+    }
+
+    /**
+     * horizontal pass, blur rows [fromY, toY) into the transposed buffer of a prepared
+     * context
+     * <p/>
+     * Rows can be processed concurrently as long as each thread uses its own stack.
+     */
+    static void blurRows(int[] pix, int offset, int stride, int w, int h, int radius,
+                         int[] transposed, int[] hmin, int[] dv, int[] stack,
+                         BlurCancellation cancellation, int fromY, int toY) {
+        int wm = w - 1;
+        int div = radius + radius + 1;
+        int r1 = radius + 1;
+        int rsum, gsum, bsum, routsum, goutsum, boutsum, rinsum, ginsum, binsum;
+        int i, p, rbs, cr, cg, cb, stackpointer, stackstart;
+
+        for (int y = fromY; y < toY; y++) {
+            BlurCancellation.checkBand(cancellation, y);
+            int yw = offset + y * stride;
+            rinsum = ginsum = binsum = routsum = goutsum = boutsum = rsum = gsum = bsum = 0;
+            for (i = -radius; i <= radius; i++) {
+                p = pix[yw + Math.min(wm, Math.max(i, 0))];
+                stack[i + radius] = p;
+                cr = (p >> 16) & 0xff;
+                cg = (p >> 8) & 0xff;
+                cb = p & 0xff;
+                rbs = r1 - Math.abs(i);
+                rsum += cr * rbs;
+                gsum += cg * rbs;
+                bsum += cb * rbs;
+                if (i > 0) {
+                    rinsum += cr;
+                    ginsum += cg;
+                    binsum += cb;
+                } else {
+                    routsum += cr;
+                    goutsum += cg;
+                    boutsum += cb;
+                }
+            }
+            stackpointer = radius;
+
+            for (int x = 0, ti = y; x < w; x++, ti += h) {
+                transposed[ti] = (dv[rsum] << 16) | (dv[gsum] << 8) | dv[bsum];
+
+                rsum -= routsum;
+                gsum -= goutsum;
+                bsum -= boutsum;
+
+                stackstart = stackpointer + r1;
+                if (stackstart >= div) {
+                    stackstart -= div;
+                }
+                p = stack[stackstart];
+                routsum -= (p >> 16) & 0xff;
+                goutsum -= (p >> 8) & 0xff;
+                boutsum -= p & 0xff;
+
+                p = pix[yw + hmin[x]];
+                stack[stackstart] = p;
+                rinsum += (p >> 16) & 0xff;
+                ginsum += (p >> 8) & 0xff;
+                binsum += p & 0xff;
+
+                rsum += rinsum;
+                gsum += ginsum;
+                bsum += binsum;
+
+                if (++stackpointer == div) {
+                    stackpointer = 0;
+                }
+                p = stack[stackpointer];
+                cr = (p >> 16) & 0xff;
+                cg = (p >> 8) & 0xff;
+                cb = p & 0xff;
+
+                routsum += cr;
+                goutsum += cg;
+                boutsum += cb;
+
+                rinsum -= cr;
+                ginsum -= cg;
+                binsum -= cb;
+            }
+        }
+    }
+
+    /**
+     * vertical pass, blur columns [fromX, toX) from the transposed buffer back to pix
+     * <p/>
+     * Every row must have been through {@link #blurRows}, columns can be processed concurrently
+     * as long as each thread uses its own stack.
+     */
+    static void blurColumns(int[] pix, int offset, int stride, int w, int h, int radius,
+                            int[] transposed, int[] dv, int[] stack,
+                            BlurCancellation cancellation, int fromX, int toX) {
+        int hm = h - 1;
+        int div = radius + radius + 1;
+        int r1 = radius + 1;
+        int rsum, gsum, bsum, routsum, goutsum, boutsum, rinsum, ginsum, binsum;
+        int i, p, rbs, cr, cg, cb, stackpointer, stackstart, next;
+
+        for (int x = fromX; x < toX; x++) {
+            BlurCancellation.checkBand(cancellation, x);
+            int column = x * h;
+            rinsum = ginsum = binsum = routsum = goutsum = boutsum = rsum = gsum = bsum = 0;
+            for (i = -radius; i <= radius; i++) {
+                p = transposed[column + Math.min(hm, Math.max(i, 0))];
+                stack[i + radius] = p;
+                cr = (p >> 16) & 0xff;
+                cg = (p >> 8) & 0xff;
+                cb = p & 0xff;
+                rbs = r1 - Math.abs(i);
+                rsum += cr * rbs;
+                gsum += cg * rbs;
+                bsum += cb * rbs;
+                if (i > 0) {
+                    rinsum += cr;
+                    ginsum += cg;
+                    binsum += cb;
+                } else {
+                    routsum += cr;
+                    goutsum += cg;
+                    boutsum += cb;
+                }
+            }
+            stackpointer = radius;
+
+            for (int y = 0, yi = offset + x; y < h; y++, yi += stride) {
+                // Preserve alpha channel: ( 0xff000000 & pix[yi] )
+                pix[yi] = (0xff000000 & pix[yi]) | (dv[rsum] << 16) | (dv[gsum] << 8) | dv[bsum];
+
+                rsum -= routsum;
+                gsum -= goutsum;
+                bsum -= boutsum;
+
+                stackstart = stackpointer + r1;
+                if (stackstart >= div) {
+                    stackstart -= div;
+                }
+                p = stack[stackstart];
+                routsum -= (p >> 16) & 0xff;
+                goutsum -= (p >> 8) & 0xff;
+                boutsum -= p & 0xff;
+
+                next = y + r1;
+                p = transposed[column + (next < hm ? next : hm)];
+                stack[stackstart] = p;
+                rinsum += (p >> 16) & 0xff;
+                ginsum += (p >> 8) & 0xff;
+                binsum += p & 0xff;
+
+                rsum += rinsum;
+                gsum += ginsum;
+                bsum += binsum;
+
+                if (++stackpointer == div) {
+                    stackpointer = 0;
+                }
+                p = stack[stackpointer];
+                cr = (p >> 16) & 0xff;
+                cg = (p >> 8) & 0xff;
+                cb = p & 0xff;
+
+                routsum += cr;
+                goutsum += cg;
+                boutsum += cb;
+
+                rinsum -= cr;
+                ginsum -= cg;
+                binsum -= cb;
+            }
+        }
+    }
+}
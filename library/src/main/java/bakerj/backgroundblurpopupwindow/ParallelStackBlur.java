@@ -0,0 +1,211 @@
+package bakerj.backgroundblurpopupwindow;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link PackedStackBlurKernel} on every core.
+ * <p/>
+ * Horizontal pass is split in bands of rows and vertical pass in bands of columns, each band
+ * having its own stack. Result is exactly the same as the one of the serial kernel.
+ */
+public final class ParallelStackBlur {
+
+    /**
+     * Below this number of pixels, dispatching bands costs more than it saves.
+     */
+    public static final int MIN_PIXELS = 160 * 1024;
+
+    /**
+     * Number of bands used by default, one per core.
+     */
+    private static final int BAND_COUNT = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Threads blurring every band but the first one, which is done by the calling thread.
+     */
+    private static ExecutorService sExecutor;
+
+    /**
+     * non instantiable helper
+     */
+    private ParallelStackBlur() {
+
+    }
+
+    /**
+     * Tell whether blurring a picture of the given size is worth being done on several cores.
+     *
+     * @param width  picture width
+     * @param height picture height
+     * @return true if device has several cores and picture is large enough
+     */
+    public static boolean isWorthwhile(int width, int height) {
+        return BAND_COUNT > 1 && width * height >= MIN_PIXELS;
+    }
+
+    /**
+     * blur a given pixel buffer in place, one band per core
+     *
+     * @see StackBlurKernel#blur(int[], int, int, int, int, int, StackBlurContext)
+     */
+    public static void blur(int[] pixels, int offset, int stride, int width, int height,
+                            int radius, StackBlurContext context) {
+        blur(pixels, offset, stride, width, height, radius, context, BAND_COUNT);
+    }
+
+    /**
+     * blur a given pixel buffer in place, split in the given number of bands
+     *
+     * @see StackBlurKernel#blur(int[], int, int, int, int, int, StackBlurContext)
+     */
+    static void blur(int[] pixels, int offset, int stride, int width, int height, int radius,
+                     StackBlurContext context, int bandCount) {
+        int bands = Math.min(bandCount, Math.min(width, height));
+        if (bands <= 1) {
+            PackedStackBlurKernel.blur(pixels, offset, stride, width, height, radius, context);
+            return;
+        }
+        if (radius < 1) {
+            return;
+        }
+        if (stride < width) {
+            throw new IllegalArgumentException("stride must be >= width");
+        }
+        if (offset < 0 || offset + (height - 1) * stride + width > pixels.length) {
+            throw new ArrayIndexOutOfBoundsException("pixels too small for given dimensions");
+        }
+        context.preparePacked(width, height, radius);
+        // buffers are taken once, the context may be released while the blur runs
+        int[] transposed = context.transposed;
+        int[] hmin = context.hmin;
+        int[] dv = context.dv;
+        BlurCancellation cancellation = context.cancellation;
+        BandTask[] tasks = new BandTask[bands];
+        for (int i = 0; i < bands; i++) {
+            tasks[i] = new BandTask(pixels, offset, stride, width, height, radius, transposed,
+                    hmin, dv, context.obtainPackedStack(i), cancellation);
+        }
+        runPass(tasks, true, height);
+        runPass(tasks, false, width);
+    }
+
+    /**
+     * Run one pass, splitting [0, size) between tasks, and wait for every band to be done.
+     */
+    private static void runPass(BandTask[] tasks, boolean rows, int size) {
+        CountDownLatch latch = new CountDownLatch(tasks.length - 1);
+        ExecutorService executor = getExecutor();
+        for (int i = 0; i < tasks.length; i++) {
+            BandTask task = tasks[i];
+            task.rows = rows;
+            task.from = size * i / tasks.length;
+            task.to = size * (i + 1) / tasks.length;
+            task.latch = i == 0 ? null : latch;
+            task.error = null;
+            if (i > 0) {
+                executor.execute(task);
+            }
+        }
+        tasks[0].run();
+        // workers write into the shared buffers, never leave before they are done
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        for (BandTask task : tasks) {
+            if (task.error instanceof CancellationException) {
+                throw (CancellationException) task.error;
+            }
+            if (task.error != null) {
+                throw new RuntimeException("Blur band failed", task.error);
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            int threads = Math.max(1, BAND_COUNT - 1);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "StackBlur #" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            sExecutor = executor;
+        }
+        return sExecutor;
+    }
+
+    /**
+     * One band of rows or columns, with its own stack.
+     */
+    private static class BandTask implements Runnable {
+
+        private final int[] mPixels;
+        private final int mOffset, mStride, mWidth, mHeight, mRadius;
+        private final int[] mTransposed, mHmin, mDv;
+        private final int[] mStack;
+        private final BlurCancellation mCancellation;
+        boolean rows;
+        int from, to;
+        CountDownLatch latch;
+        volatile Throwable error;
+
+        BandTask(int[] pixels, int offset, int stride, int width, int height, int radius,
+                 int[] transposed, int[] hmin, int[] dv, int[] stack,
+                 BlurCancellation cancellation) {
+            mPixels = pixels;
+            mOffset = offset;
+            mStride = stride;
+            mWidth = width;
+            mHeight = height;
+            mRadius = radius;
+            mTransposed = transposed;
+            mHmin = hmin;
+            mDv = dv;
+            mStack = stack;
+            mCancellation = cancellation;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (rows) {
+                    PackedStackBlurKernel.blurRows(mPixels, mOffset, mStride, mWidth, mHeight,
+                            mRadius, mTransposed, mHmin, mDv, mStack, mCancellation, from, to);
+                } else {
+                    PackedStackBlurKernel.blurColumns(mPixels, mOffset, mStride, mWidth,
+                            mHeight, mRadius, mTransposed, mDv, mStack, mCancellation, from,
+                            to);
+                }
+            } catch (Throwable t) {
+                error = t;
+            } finally {
+                if (latch != null) {
+                    latch.countDown();
+                }
+            }
+        }
+    }
+}
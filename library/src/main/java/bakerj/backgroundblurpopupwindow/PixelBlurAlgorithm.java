@@ -0,0 +1,87 @@
+package bakerj.backgroundblurpopupwindow;
+
+import android.graphics.Bitmap;
+
+/**
+ * Base of the algorithms blurring the ARGB pixels of a bitmap on the CPU.
+ * <p/>
+ * Pixels are read in a buffer kept between two blurs, blurred in place, then written back.
+ */
+public abstract class PixelBlurAlgorithm implements BlurAlgorithm {
+
+    /**
+     * Pixels read out of the bitmap being blurred.
+     */
+    private int[] mPixels;
+
+    /**
+     * Bytes allocated by the last blur.
+     */
+    private long mAllocatedBytes;
+
+    @Override
+    public Bitmap.Config getPreferredConfig() {
+        return Bitmap.Config.ARGB_8888;
+    }
+
+    @Override
+    public Bitmap blur(Bitmap bitmap, int radius, BlurCancellation cancellation) {
+        if (radius < 1) {
+            return null;
+        }
+        mAllocatedBytes = 0;
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+        mPixels = obtainBuffer(mPixels, w * h);
+        bitmap.getPixels(mPixels, 0, w, 0, 0, w, h);
+        // a cancelled blur leaves the bitmap untouched
+        blur(mPixels, w, h, radius, cancellation);
+        bitmap.setPixels(mPixels, 0, w, 0, 0, w, h);
+        return bitmap;
+    }
+
+    /**
+     * blur a given pixel buffer in place
+     *
+     * @param pixels       ARGB pixels, row after row, alpha channel must be preserved
+     * @param width        number of pixels in each row
+     * @param height       number of rows
+     * @param radius       blur radius, at least 1
+     * @param cancellation token to check between bands of rows or columns, may be null
+     * @throws java.util.concurrent.CancellationException if cancelled
+     */
+    protected abstract void blur(int[] pixels, int width, int height, int radius,
+                                 BlurCancellation cancellation);
+
+    /**
+     * Get a buffer of at least the given size, counting the bytes allocated.
+     *
+     * @param buffer buffer kept from previous blurs, may be null
+     * @param size   number of entries needed
+     * @return buffer if large enough, a new one otherwise
+     */
+    protected int[] obtainBuffer(int[] buffer, int size) {
+        if (buffer != null && buffer.length >= size) {
+            return buffer;
+        }
+        addAllocatedBytes(size * 4L);
+        return new int[size];
+    }
+
+    /**
+     * Count bytes allocated by the current blur.
+     */
+    protected void addAllocatedBytes(long bytes) {
+        mAllocatedBytes += bytes;
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+
+    @Override
+    public void release() {
+        mPixels = null;
+    }
+}
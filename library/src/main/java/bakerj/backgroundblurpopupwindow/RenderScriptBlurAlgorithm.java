@@ -0,0 +1,77 @@
+package bakerj.backgroundblurpopupwindow;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+/**
+ * RenderScript blur, see {@link RenderScriptBlurSession}.
+ * <p/>
+ * Don't forget to enable RenderScript support mode in your build.gradle.
+ */
+public class RenderScriptBlurAlgorithm implements BlurAlgorithm {
+
+    /**
+     * Estimated cost of copying pixels in and out of allocations, and of a pixel for each pass,
+     * in nanoseconds.
+     */
+    private static final long FIXED_COST = 1000000;
+    private static final int PIXEL_COST = 10;
+
+    private final RenderScriptBlurSession mSession;
+
+    /**
+     * Constructor, RenderScript objects are created lazily on first blur.
+     *
+     * @param context used by RenderScript, only the application context is kept
+     */
+    public RenderScriptBlurAlgorithm(Context context) {
+        mSession = new RenderScriptBlurSession(context);
+    }
+
+    @Override
+    public String getName() {
+        return "RenderScript";
+    }
+
+    @Override
+    public Bitmap.Config getPreferredConfig() {
+        return RenderScriptBlurHelper.PREFERRED_CONFIG;
+    }
+
+    @Override
+    public boolean supportsRadius(int radius) {
+        return true;
+    }
+
+    @Override
+    public long estimateCost(int width, int height, int radius) {
+        float sigma = BlurAlgorithms.radiusToSigma(radius);
+        float passSigma = BlurAlgorithms.radiusToSigma(RenderScriptBlurSession.MAX_PASS_RADIUS);
+        int passes = (int) Math.ceil(sigma * sigma / (passSigma * passSigma));
+        return FIXED_COST + PIXEL_COST * (long) width * height
+                * Math.min(passes, RenderScriptBlurSession.MAX_PASSES);
+    }
+
+    @Override
+    public Bitmap blur(Bitmap bitmap, int radius, BlurCancellation cancellation) {
+        // a running script can't be interrupted, only check before and after
+        if (cancellation != null) {
+            cancellation.throwIfCancelled();
+        }
+        Bitmap blurred = RenderScriptBlurHelper.doBlur(bitmap, radius, true, mSession);
+        if (cancellation != null) {
+            cancellation.throwIfCancelled();
+        }
+        return blurred;
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return mSession.getAllocatedBytes();
+    }
+
+    @Override
+    public void release() {
+        mSession.release();
+    }
+}
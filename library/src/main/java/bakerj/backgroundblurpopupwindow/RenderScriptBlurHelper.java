@@ -2,12 +2,6 @@ package bakerj.backgroundblurpopupwindow;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.support.v8.renderscript.Allocation;
-import android.support.v8.renderscript.Element;
-import android.support.v8.renderscript.RSRuntimeException;
-import android.support.v8.renderscript.RenderScript;
-import android.support.v8.renderscript.ScriptIntrinsicBlur;
-import android.util.Log;
 
 /**
  * Simple helper used to blur a bitmap thanks to render script.
@@ -15,9 +9,10 @@ import android.util.Log;
 public final class RenderScriptBlurHelper {
 
     /**
-     * Log cat
+     * Format bitmaps should be in to be blurred without any conversion, RenderScript
+     * working on U8_4 allocations.
      */
-    private static final String TAG = RenderScriptBlurHelper.class.getSimpleName();
+    public static final Bitmap.Config PREFERRED_CONFIG = Bitmap.Config.ARGB_8888;
 
     /**
      * Non instantiable class.
@@ -36,6 +31,25 @@ public final class RenderScriptBlurHelper {
      * @return blurred bitmap
      */
     public static Bitmap doBlur(Bitmap sentBitmap, int radius, boolean canReuseInBitmap, Context context) {
+        RenderScriptBlurSession session = new RenderScriptBlurSession(context);
+        try {
+            return doBlur(sentBitmap, radius, canReuseInBitmap, session);
+        } finally {
+            session.release();
+        }
+    }
+
+    /**
+     * blur a given bitmap, reusing the RenderScript objects of a session
+     *
+     * @param sentBitmap       bitmap to blur
+     * @param radius           blur radius
+     * @param canReuseInBitmap true if bitmap must be reused without blur
+     * @param session          RenderScript objects kept between two blurs
+     * @return blurred bitmap
+     */
+    public static Bitmap doBlur(Bitmap sentBitmap, int radius, boolean canReuseInBitmap,
+                                RenderScriptBlurSession session) {
         Bitmap bitmap;
 
         if (canReuseInBitmap) {
@@ -51,23 +65,7 @@ public final class RenderScriptBlurHelper {
             bitmap = convertRGB565toARGB888(bitmap);
         }
 
-        try {
-            final RenderScript rs = RenderScript.create(context);
-            final Allocation input = Allocation.createFromBitmap(rs, bitmap, Allocation.MipmapControl.MIPMAP_NONE,
-                Allocation.USAGE_SCRIPT);
-            final Allocation output = Allocation.createTyped(rs, input.getType());
-            final ScriptIntrinsicBlur script = ScriptIntrinsicBlur.create(rs, Element.U8_4(rs));
-            script.setRadius(radius);
-            script.setInput(input);
-            script.forEach(output);
-            output.copyTo(bitmap);
-            return bitmap;
-        } catch (RSRuntimeException e) {
-            Log.e(TAG, "RenderScript known error : https://code.google.com/p/android/issues/detail?id=71347 "
-                + "continue with the FastBlur approach.");
-        }
-
-        return null;
+        return session.blur(bitmap, radius);
     }
 
     private static Bitmap convertRGB565toARGB888(Bitmap bitmap) {
@@ -0,0 +1,209 @@
+package bakerj.backgroundblurpopupwindow;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.support.v8.renderscript.Allocation;
+import android.support.v8.renderscript.Element;
+import android.support.v8.renderscript.RSRuntimeException;
+import android.support.v8.renderscript.RenderScript;
+import android.support.v8.renderscript.ScriptIntrinsicBlur;
+import android.util.Log;
+
+/**
+ * Long-lived RenderScript objects used to blur bitmaps.
+ * <p/>
+ * RenderScript context and blur script are created once, allocations are kept as long as
+ * the blurred bitmaps keep the same dimensions. {@link #release()} must be called once the
+ * session isn't needed anymore, to free native memory.
+ * <p/>
+ * ScriptIntrinsicBlur doesn't go above {@link #MAX_PASS_RADIUS}, larger radii are reached by
+ * chaining passes and, past {@link #MAX_PASSES} passes, by blurring a smaller copy.
+ */
+public final class RenderScriptBlurSession {
+
+    /**
+     * Largest radius accepted by ScriptIntrinsicBlur.
+     */
+    public static final int MAX_PASS_RADIUS = 25;
+
+    /**
+     * Passes chained before blurring a down scaled copy instead.
+     */
+    static final int MAX_PASSES = 4;
+
+    /**
+     * Log cat
+     */
+    private static final String TAG = RenderScriptBlurSession.class.getSimpleName();
+
+    private Context mContext;
+    private RenderScript mRenderScript;
+    private ScriptIntrinsicBlur mBlurScript;
+    private Allocation mInput, mOutput;
+    private int mWidth, mHeight;
+
+    /**
+     * Bytes allocated by the last blur.
+     */
+    private long mAllocatedBytes;
+
+    /**
+     * Down scaled copy used for very large radii, with what is needed to draw it.
+     */
+    private Bitmap mScaledBitmap;
+    private final Canvas mCanvas = new Canvas();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mRect = new Rect();
+
+    /**
+     * Constructor, RenderScript objects are created lazily on first blur.
+     *
+     * @param context used by RenderScript, only the application context is kept
+     */
+    public RenderScriptBlurSession(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * blur a given ARGB_8888 bitmap in place
+     *
+     * @param bitmap bitmap to blur
+     * @param radius blur radius, any value above 0
+     * @return blurred bitmap, null if radius is below 1 or RenderScript failed
+     */
+    public synchronized Bitmap blur(Bitmap bitmap, int radius) {
+        mAllocatedBytes = 0;
+        if (radius < 1) {
+            return null;
+        }
+        try {
+            float sigma = BlurAlgorithms.radiusToSigma(radius);
+            int scale = (int) Math.ceil(sigma / maxSigma(MAX_PASSES));
+            if (scale <= 1) {
+                blurPasses(bitmap, sigma);
+                return bitmap;
+            }
+            // too many passes would be needed, blur a smaller copy with an equivalent radius
+            int width = Math.max(1, bitmap.getWidth() / scale);
+            int height = Math.max(1, bitmap.getHeight() / scale);
+            if (mScaledBitmap == null || mScaledBitmap.getWidth() != width
+                    || mScaledBitmap.getHeight() != height) {
+                if (mScaledBitmap != null) {
+                    mScaledBitmap.recycle();
+                }
+                mScaledBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                mAllocatedBytes += mScaledBitmap.getRowBytes() * mScaledBitmap.getHeight();
+            }
+            draw(bitmap, mScaledBitmap);
+            blurPasses(mScaledBitmap, sigma * width / bitmap.getWidth());
+            draw(mScaledBitmap, bitmap);
+            return bitmap;
+        } catch (RSRuntimeException e) {
+            Log.e(TAG, "RenderScript known error : https://code.google.com/p/android/issues/detail?id=71347 "
+                    + "continue with the FastBlur approach.");
+            // start from scratch next time, objects may be in a broken state
+            release();
+        }
+        return null;
+    }
+
+    /**
+     * Blur in as few passes as possible, variances of chained gaussian passes adding up.
+     */
+    private void blurPasses(Bitmap bitmap, float sigma) {
+        int passes = 1;
+        while (passes < MAX_PASSES && sigma > maxSigma(passes)) {
+            passes++;
+        }
+        float passRadius = BlurAlgorithms.sigmaToRadius(sigma / (float) Math.sqrt(passes));
+        prepare(bitmap);
+        mInput.copyFrom(bitmap);
+        mBlurScript.setRadius(Math.max(0.1f, Math.min(MAX_PASS_RADIUS, passRadius)));
+        Allocation input = mInput;
+        Allocation output = mOutput;
+        for (int i = 0; i < passes; i++) {
+            mBlurScript.setInput(input);
+            mBlurScript.forEach(output);
+            Allocation blurred = output;
+            output = input;
+            input = blurred;
+        }
+        input.copyTo(bitmap);
+    }
+
+    private void draw(Bitmap source, Bitmap destination) {
+        mCanvas.setBitmap(destination);
+        mRect.set(0, 0, destination.getWidth(), destination.getHeight());
+        mCanvas.drawBitmap(source, null, mRect, mPaint);
+    }
+
+    /**
+     * Largest standard deviation reachable with the given number of passes.
+     */
+    private static float maxSigma(int passes) {
+        return BlurAlgorithms.radiusToSigma(MAX_PASS_RADIUS) * (float) Math.sqrt(passes);
+    }
+
+    /**
+     * Create RenderScript objects, and allocations matching the bitmap if size changed.
+     */
+    private void prepare(Bitmap bitmap) {
+        if (mRenderScript == null) {
+            mRenderScript = RenderScript.create(mContext);
+            mBlurScript = ScriptIntrinsicBlur.create(mRenderScript, Element.U8_4(mRenderScript));
+        }
+        if (mInput == null || mWidth != bitmap.getWidth() || mHeight != bitmap.getHeight()) {
+            destroyAllocations();
+            mInput = Allocation.createFromBitmap(mRenderScript, bitmap,
+                    Allocation.MipmapControl.MIPMAP_NONE, Allocation.USAGE_SCRIPT);
+            mOutput = Allocation.createTyped(mRenderScript, mInput.getType());
+            mWidth = bitmap.getWidth();
+            mHeight = bitmap.getHeight();
+            // input and output allocations
+            mAllocatedBytes += 2L * bitmap.getRowBytes() * mHeight;
+        }
+    }
+
+    private void destroyAllocations() {
+        if (mInput != null) {
+            mInput.destroy();
+            mInput = null;
+        }
+        if (mOutput != null) {
+            mOutput.destroy();
+            mOutput = null;
+        }
+        mWidth = mHeight = 0;
+    }
+
+    /**
+     * Get the number of bytes the last blur allocated, native ones included.
+     *
+     * @return bytes allocated, objects kept from previous blurs aside
+     */
+    public synchronized long getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+
+    /**
+     * Destroy every RenderScript object, next blur will create them again.
+     */
+    public synchronized void release() {
+        destroyAllocations();
+        if (mBlurScript != null) {
+            mBlurScript.destroy();
+            mBlurScript = null;
+        }
+        if (mRenderScript != null) {
+            mRenderScript.destroy();
+            mRenderScript = null;
+        }
+        if (mScaledBitmap != null) {
+            mScaledBitmap.recycle();
+            mScaledBitmap = null;
+        }
+    }
+}
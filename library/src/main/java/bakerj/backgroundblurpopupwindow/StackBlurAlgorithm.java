@@ -0,0 +1,69 @@
+package bakerj.backgroundblurpopupwindow;
+
+import android.graphics.Bitmap;
+
+/**
+ * Stack blur, see {@link FastBlurHelper}.
+ * <p/>
+ * Cost doesn't depend much on radius, large pictures are blurred on every core.
+ */
+public class StackBlurAlgorithm implements BlurAlgorithm {
+
+    /**
+     * Estimated cost of a pixel, and of each stack entry filled when starting a row or a
+     * column, in nanoseconds.
+     */
+    private static final int PIXEL_COST = 30;
+    private static final int STACK_COST = 25;
+
+    private final StackBlurContext mContext = new StackBlurContext();
+    private long mAllocatedBytes;
+
+    @Override
+    public String getName() {
+        return "FastBlur";
+    }
+
+    @Override
+    public Bitmap.Config getPreferredConfig() {
+        return FastBlurHelper.PREFERRED_CONFIG;
+    }
+
+    @Override
+    public boolean supportsRadius(int radius) {
+        return true;
+    }
+
+    @Override
+    public long estimateCost(int width, int height, int radius) {
+        long cost = PIXEL_COST * (long) width * height
+                + STACK_COST * (long) (width + height) * (radius + radius + 1);
+        if (ParallelStackBlur.isWorthwhile(width, height)) {
+            cost /= Runtime.getRuntime().availableProcessors();
+        }
+        return cost;
+    }
+
+    @Override
+    public Bitmap blur(Bitmap bitmap, int radius, BlurCancellation cancellation) {
+        mContext.takeAllocatedBytes();
+        mContext.setCancellation(cancellation);
+        try {
+            return FastBlurHelper.doBlur(bitmap, radius, true, mContext,
+                    ParallelStackBlur.isWorthwhile(bitmap.getWidth(), bitmap.getHeight()));
+        } finally {
+            mContext.setCancellation(null);
+            mAllocatedBytes = mContext.takeAllocatedBytes();
+        }
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+
+    @Override
+    public void release() {
+        mContext.release();
+    }
+}
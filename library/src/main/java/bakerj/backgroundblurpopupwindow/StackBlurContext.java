@@ -0,0 +1,197 @@
+package bakerj.backgroundblurpopupwindow;
+
+/**
+ * Scratch buffers used by {@link StackBlurKernel}, kept between two blurs.
+ * <p/>
+ * Buffers only grow, so once a blur has been done for given dimensions and radius, blurring
+ * again with the same or smaller parameters doesn't allocate anything.
+ * <p/>
+ * Not thread safe, a context must not be shared by two blurs running at the same time.
+ */
+public final class StackBlurContext {
+
+    /**
+     * Pixels read out of a bitmap, see {@link #obtainPixels(int)}
+     */
+    private int[] mPixels;
+
+    /**
+     * Channels computed by the horizontal pass and read by the vertical one.
+     */
+    int[] r, g, b;
+
+    /**
+     * Clamped indexes of the pixel entering the stack, for rows (hmin) and columns (vmin).
+     */
+    int[] hmin, vmin;
+
+    /**
+     * Division lookup table for {@link #mRadius}, shared with other contexts.
+     */
+    int[] dv;
+
+    /**
+     * Stack of the colors being summed, radius * 2 + 1 entries.
+     */
+    int[][] stack;
+
+    /**
+     * Result of the horizontal pass of {@link PackedStackBlurKernel}, column after column.
+     */
+    int[] transposed;
+
+    /**
+     * Flat ring of packed pixels used by {@link PackedStackBlurKernel}.
+     */
+    int[] packedStack;
+
+    /**
+     * Extra packed stacks used when several bands are blurred at the same time.
+     */
+    private int[][] mBandStacks;
+
+    /**
+     * Token checked by the kernels between bands, may be null.
+     */
+    BlurCancellation cancellation;
+
+    /**
+     * Radius the lookup table has been taken for.
+     */
+    private int mRadius;
+
+    /**
+     * Bytes allocated since last {@link #takeAllocatedBytes()}.
+     */
+    private long mAllocatedBytes;
+
+    /**
+     * Get a buffer able to hold the given number of pixels.
+     *
+     * @param size number of pixels
+     * @return buffer of at least size entries
+     */
+    public int[] obtainPixels(int size) {
+        if (mPixels == null || mPixels.length < size) {
+            mPixels = allocate(size);
+        }
+        return mPixels;
+    }
+
+    /**
+     * Set the token checked by the next blurs between bands of rows or columns.
+     *
+     * @param cancellation token, null for blurs which can't be cancelled
+     */
+    public void setCancellation(BlurCancellation cancellation) {
+        this.cancellation = cancellation;
+    }
+
+    /**
+     * Make sure every buffer is large enough for a blur.
+     */
+    void prepare(int width, int height, int radius) {
+        int wh = width * height;
+        if (r == null || r.length < wh) {
+            r = allocate(wh);
+            g = allocate(wh);
+            b = allocate(wh);
+        }
+        prepareTables(width, height, radius);
+        int div = radius + radius + 1;
+        if (stack == null || stack.length != div) {
+            stack = new int[div][3];
+            mAllocatedBytes += div * 3 * 4;
+        }
+    }
+
+    /**
+     * Make sure every buffer is large enough for a blur by {@link PackedStackBlurKernel}.
+     */
+    void preparePacked(int width, int height, int radius) {
+        int wh = width * height;
+        if (transposed == null || transposed.length < wh) {
+            transposed = allocate(wh);
+        }
+        prepareTables(width, height, radius);
+        int div = radius + radius + 1;
+        if (packedStack == null || packedStack.length != div) {
+            packedStack = allocate(div);
+        }
+    }
+
+    private void prepareTables(int width, int height, int radius) {
+        if (hmin == null || hmin.length < width) {
+            hmin = allocate(width);
+        }
+        if (vmin == null || vmin.length < height) {
+            vmin = allocate(height);
+        }
+        if (dv == null || mRadius != radius) {
+            dv = StackBlurTables.divisionTable(radius);
+            mRadius = radius;
+        }
+        int wm = width - 1;
+        int hm = height - 1;
+        for (int x = 0; x < width; x++) {
+            hmin[x] = Math.min(x + radius + 1, wm);
+        }
+        for (int y = 0; y < height; y++) {
+            vmin[y] = Math.min(y + radius + 1, hm) * width;
+        }
+    }
+
+    /**
+     * Get the packed stack of a band, band 0 being {@link #packedStack}.
+     * <p/>
+     * Must be called after {@link #preparePacked(int, int, int)}, from the thread dispatching
+     * bands.
+     */
+    int[] obtainPackedStack(int band) {
+        if (band == 0) {
+            return packedStack;
+        }
+        if (mBandStacks == null || mBandStacks.length < band) {
+            int[][] stacks = new int[band][];
+            if (mBandStacks != null) {
+                System.arraycopy(mBandStacks, 0, stacks, 0, mBandStacks.length);
+            }
+            mBandStacks = stacks;
+        }
+        if (mBandStacks[band - 1] == null || mBandStacks[band - 1].length != packedStack.length) {
+            mBandStacks[band - 1] = allocate(packedStack.length);
+        }
+        return mBandStacks[band - 1];
+    }
+
+    private int[] allocate(int size) {
+        mAllocatedBytes += size * 4L;
+        return new int[size];
+    }
+
+    /**
+     * Get the number of bytes allocated since last call, shared division tables aside.
+     */
+    long takeAllocatedBytes() {
+        long bytes = mAllocatedBytes;
+        mAllocatedBytes = 0;
+        return bytes;
+    }
+
+    /**
+     * Drop every buffer, the next blur will allocate them again.
+     */
+    public void release() {
+        mPixels = null;
+        r = g = b = null;
+        hmin = vmin = null;
+        dv = null;
+        stack = null;
+        transposed = null;
+        packedStack = null;
+        mBandStacks = null;
+        cancellation = null;
+        mRadius = 0;
+        mAllocatedBytes = 0;
+    }
+}
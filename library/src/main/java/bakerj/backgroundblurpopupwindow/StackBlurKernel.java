@@ -0,0 +1,304 @@
+package bakerj.backgroundblurpopupwindow;
+
+/**
+ * Stack blur applied in place on a buffer of ARGB pixels.
+ * <p/>
+ * Doesn't rely on any android class so it can be run and tested on a plain JVM.
+ * <p/>
+ * Keeps channels in three planes between passes, {@link PackedStackBlurKernel} gives the same
+ * result with less memory traffic.
+ */
+public final class StackBlurKernel {
+
+    /**
+     * non instantiable helper
+     */
+    private StackBlurKernel() {
+
+    }
+
+    /**
+     * blur a given pixel buffer in place
+     * <p/>
+     * Layout of the buffer is the same as the one used by
+     * {@link android.graphics.Bitmap#getPixels(int[], int, int, int, int, int, int)}.
+     *
+     * @param pixels ARGB pixels to blur, alpha channel is preserved
+     * @param offset index of the first pixel to blur
+     * @param stride number of entries between two rows, must be at least width
+     * @param width  number of pixels to blur in each row
+     * @param height number of rows to blur
+     * @param radius blur radius, nothing is done below 1
+     */
+    public static void blur(int[] pixels, int offset, int stride, int width, int height,
+                            int radius) {
+        blur(pixels, offset, stride, width, height, radius, new StackBlurContext());
+    }
+
+    /**
+     * blur a given pixel buffer in place, reusing the scratch buffers of a context
+     *
+     * @param pixels  ARGB pixels to blur, alpha channel is preserved
+     * @param offset  index of the first pixel to blur
+     * @param stride  number of entries between two rows, must be at least width
+     * @param width   number of pixels to blur in each row
+     * @param height  number of rows to blur
+     * @param radius  blur radius, nothing is done below 1
+     * @param context scratch buffers, grown if needed
+     */
+    public static void blur(int[] pixels, int offset, int stride, int width, int height,
+                            int radius, StackBlurContext context) {
+        if (radius < 1 || width < 1 || height < 1) {
+            return;
+        }
+        if (stride < width) {
+            throw new IllegalArgumentException("stride must be >= width");
+        }
+        if (offset < 0 || offset + (height - 1) * stride + width > pixels.length) {
+            throw new ArrayIndexOutOfBoundsException("pixels too small for given dimensions");
+        }
+
+        // Stack Blur v1.0 from
+        // http://www.quasimondo.com/StackBlurForCanvas/StackBlurDemo.html
+        //
+        // Java Author: Mario Klingemann <mario at quasimondo.com>
+        // http://incubator.quasimondo.com
+        // created Feburary 29, 2004
+        // Android port : Yahel Bouaziz <yahel at kayenko.com>
+        // http://www.kayenko.com
+        // ported april 5th, 2012
+
+        // This is a compromise between Gaussian Blur and Box blur
+        // It creates much better looking blurs than Box Blur, but is
+        // 7x faster than my Gaussian Blur implementation.
+        //
+        // I called it Stack Blur because this describes best how this
+        // filter works internally: it creates a kind of moving stack
+        // of colors whilst scanning through the image. Thereby it
+        // just has to add one new block of color to the right side
+        // of the stack and remove the leftmost color. The remaining
+        // colors on the topmost layer of the stack are either added on
+        // or reduced by one, depending on if they are on the right or
+        // on the left side of the stack.
+        //
+        // If you are using this algorithm in your code please add
+        // the following line:
+        //
+        // Stack Blur Algorithm by Mario Klingemann <mario@quasimondo.com>
+
+        context.prepare(width, height, radius);
+        // buffers are taken once, the context may be released while the blur runs
+        int[] r = context.r;
+        int[] g = context.g;
+        int[] b = context.b;
+        int[] hmin = context.hmin;
+        int[] vmin = context.vmin;
+        int[] dv = context.dv;
+        int[][] stack = context.stack;
+        BlurCancellation cancellation = context.cancellation;
+        blurRows(pixels, offset, stride, width, height, radius, r, g, b, hmin, dv, stack,
+                cancellation, 0, height);
+        blurColumns(pixels, offset, stride, width, height, radius, r, g, b, vmin, dv, stack,
+                cancellation, 0, width);
+    }
+
+    /**
+     * horizontal pass, blur rows [fromY, toY) into the r/g/b planes of a prepared context
+     * <p/>
+     * Rows can be processed concurrently as long as each thread uses its own stack.
+     */
+    static void blurRows(int[] pix, int offset, int stride, int w, int h, int radius,
+                         int[] r, int[] g, int[] b, int[] hmin, int[] dv, int[][] stack,
+                         BlurCancellation cancellation, int fromY, int toY) {
+        int wm = w - 1;
+        int div = radius + radius + 1;
+
+        int rsum, gsum, bsum, x, y, i, p, yi, yw;
+
+        // yi walks the dense r/g/b planes, yw the first pixel of the current row in pix
+        yi = fromY * w;
+        yw = offset + fromY * stride;
+
+        int stackpointer;
+        int stackstart;
+        int[] sir;
+        int rbs;
+        int r1 = radius + 1;
+        int routsum, goutsum, boutsum;
+        int rinsum, ginsum, binsum;
+
+        for (y = fromY; y < toY; y++) {
+            BlurCancellation.checkBand(cancellation, y);
+            rinsum = ginsum = binsum = routsum = goutsum = boutsum = rsum = gsum = bsum = 0;
+            for (i = -radius; i <= radius; i++) {
+                p = pix[yw + Math.min(wm, Math.max(i, 0))];
+                sir = stack[i + radius];
+                sir[0] = (p & 0xff0000) >> 16;
+                sir[1] = (p & 0x00ff00) >> 8;
+                sir[2] = (p & 0x0000ff);
+                rbs = r1 - Math.abs(i);
+                rsum += sir[0] * rbs;
+                gsum += sir[1] * rbs;
+                bsum += sir[2] * rbs;
+                if (i > 0) {
+                    rinsum += sir[0];
+                    ginsum += sir[1];
+                    binsum += sir[2];
+                } else {
+                    routsum += sir[0];
+                    goutsum += sir[1];
+                    boutsum += sir[2];
+                }
+            }
+            stackpointer = radius;
+
+            for (x = 0; x < w; x++) {
+
+                r[yi] = dv[rsum];
+                g[yi] = dv[gsum];
+                b[yi] = dv[bsum];
+
+                rsum -= routsum;
+                gsum -= goutsum;
+                bsum -= boutsum;
+
+                stackstart = stackpointer - radius + div;
+                sir = stack[stackstart % div];
+
+                routsum -= sir[0];
+                goutsum -= sir[1];
+                boutsum -= sir[2];
+
+                p = pix[yw + hmin[x]];
+
+                sir[0] = (p & 0xff0000) >> 16;
+                sir[1] = (p & 0x00ff00) >> 8;
+                sir[2] = (p & 0x0000ff);
+
+                rinsum += sir[0];
+                ginsum += sir[1];
+                binsum += sir[2];
+
+                rsum += rinsum;
+                gsum += ginsum;
+                bsum += binsum;
+
+                stackpointer = (stackpointer + 1) % div;
+                sir = stack[(stackpointer) % div];
+
+                routsum += sir[0];
+                goutsum += sir[1];
+                boutsum += sir[2];
+
+                rinsum -= sir[0];
+                ginsum -= sir[1];
+                binsum -= sir[2];
+
+                yi++;
+            }
+            yw += stride;
+        }
+    }
+
+    /**
+     * vertical pass, blur columns [fromX, toX) from the r/g/b planes of the context back to pix
+     * <p/>
+     * Every row must have been through {@link #blurRows}, columns can be processed concurrently
+     * as long as each thread uses its own stack.
+     */
+    static void blurColumns(int[] pix, int offset, int stride, int w, int h, int radius,
+                            int[] r, int[] g, int[] b, int[] vmin, int[] dv, int[][] stack,
+                            BlurCancellation cancellation, int fromX, int toX) {
+        int hm = h - 1;
+        int div = radius + radius + 1;
+
+        int rsum, gsum, bsum, x, y, i, p, yp, yi;
+
+        int stackpointer;
+        int stackstart;
+        int[] sir;
+        int rbs;
+        int r1 = radius + 1;
+        int routsum, goutsum, boutsum;
+        int rinsum, ginsum, binsum;
+
+        for (x = fromX; x < toX; x++) {
+            BlurCancellation.checkBand(cancellation, x);
+            rinsum = ginsum = binsum = routsum = goutsum = boutsum = rsum = gsum = bsum = 0;
+            yp = -radius * w;
+            for (i = -radius; i <= radius; i++) {
+                yi = Math.max(0, yp) + x;
+
+                sir = stack[i + radius];
+
+                sir[0] = r[yi];
+                sir[1] = g[yi];
+                sir[2] = b[yi];
+
+                rbs = r1 - Math.abs(i);
+
+                rsum += r[yi] * rbs;
+                gsum += g[yi] * rbs;
+                bsum += b[yi] * rbs;
+
+                if (i > 0) {
+                    rinsum += sir[0];
+                    ginsum += sir[1];
+                    binsum += sir[2];
+                } else {
+                    routsum += sir[0];
+                    goutsum += sir[1];
+                    boutsum += sir[2];
+                }
+
+                if (i < hm) {
+                    yp += w;
+                }
+            }
+            yi = offset + x;
+            stackpointer = radius;
+            for (y = 0; y < h; y++) {
+                // Preserve alpha channel: ( 0xff000000 & pix[yi] )
+                pix[yi] = (0xff000000 & pix[yi]) | (dv[rsum] << 16) | (dv[gsum] << 8) | dv[bsum];
+
+                rsum -= routsum;
+                gsum -= goutsum;
+                bsum -= boutsum;
+
+                stackstart = stackpointer - radius + div;
+                sir = stack[stackstart % div];
+
+                routsum -= sir[0];
+                goutsum -= sir[1];
+                boutsum -= sir[2];
+
+                p = x + vmin[y];
+
+                sir[0] = r[p];
+                sir[1] = g[p];
+                sir[2] = b[p];
+
+                rinsum += sir[0];
+                ginsum += sir[1];
+                binsum += sir[2];
+
+                rsum += rinsum;
+                gsum += ginsum;
+                bsum += binsum;
+
+                stackpointer = (stackpointer + 1) % div;
+                sir = stack[stackpointer];
+
+                routsum += sir[0];
+                goutsum += sir[1];
+                boutsum += sir[2];
+
+                rinsum -= sir[0];
+                ginsum -= sir[1];
+                binsum -= sir[2];
+
+                yi += stride;
+            }
+        }
+    }
+}
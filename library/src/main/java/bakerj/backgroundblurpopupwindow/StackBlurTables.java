@@ -0,0 +1,116 @@
+package bakerj.backgroundblurpopupwindow;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Division lookup tables of the stack and box blurs, shared by every blur of the process.
+ * <p/>
+ * Tables are built on first use of a radius and kept in a least recently used cache bounded
+ * to {@link #MAX_CACHE_BYTES}. A table larger than the whole cache, radius 31 and above, is
+ * kept apart until another such table is needed, so that large radii aren't rebuilt on every
+ * blur either. Tables must never be written to.
+ */
+final class StackBlurTables {
+
+    /**
+     * Memory the cached tables may use, radius 25 needing about 170 KB.
+     */
+    static final int MAX_CACHE_BYTES = 1024 * 1024;
+
+    private static final Map<Integer, int[]> sTables = new LinkedHashMap<>(8, 0.75f, true);
+    private static int sCacheBytes;
+
+    /**
+     * Last table too large for the cache and its divisor, guarded by sTables.
+     */
+    private static int[] sLargeTable;
+    private static int sLargeDivisor;
+
+    /**
+     * non instantiable helper
+     */
+    private StackBlurTables() {
+
+    }
+
+    /**
+     * Get the table giving sum / divsum for every sum of the stack of the given radius.
+     *
+     * @param radius blur radius, at least 1
+     * @return shared table, must not be modified
+     */
+    static int[] divisionTable(int radius) {
+        return quotientTable((radius + 1) * (radius + 1));
+    }
+
+    /**
+     * Get the table giving sum / divisor for every sum of up to divisor 8-bit values.
+     *
+     * @param divisor number of values summed, at least 1
+     * @return shared table, must not be modified
+     */
+    static int[] quotientTable(int divisor) {
+        synchronized (sTables) {
+            int[] table = getCached(divisor);
+            if (table != null) {
+                return table;
+            }
+        }
+        int[] table = buildQuotientTable(divisor);
+        int bytes = table.length * 4;
+        synchronized (sTables) {
+            int[] existing = getCached(divisor);
+            if (existing != null) {
+                return existing;
+            }
+            if (bytes > MAX_CACHE_BYTES) {
+                sLargeTable = table;
+                sLargeDivisor = divisor;
+                return table;
+            }
+            sTables.put(divisor, table);
+            sCacheBytes += bytes;
+            Iterator<int[]> eldest = sTables.values().iterator();
+            while (sCacheBytes > MAX_CACHE_BYTES) {
+                sCacheBytes -= eldest.next().length * 4;
+                eldest.remove();
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Must be called holding sTables.
+     */
+    private static int[] getCached(int divisor) {
+        if (sLargeTable != null && sLargeDivisor == divisor) {
+            return sLargeTable;
+        }
+        return sTables.get(divisor);
+    }
+
+    /**
+     * Drop every cached table.
+     */
+    static void clear() {
+        synchronized (sTables) {
+            sTables.clear();
+            sCacheBytes = 0;
+            sLargeTable = null;
+        }
+    }
+
+    /**
+     * Each quotient covers divisor consecutive sums, fill them without dividing.
+     */
+    private static int[] buildQuotientTable(int divisor) {
+        int[] table = new int[256 * divisor];
+        for (int i = 0; i < 256; i++) {
+            Arrays.fill(table, i * divisor, (i + 1) * divisor, i);
+        }
+        return table;
+    }
+}
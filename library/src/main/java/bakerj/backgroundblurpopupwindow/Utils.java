@@ -1,6 +1,8 @@
 package bakerj.backgroundblurpopupwindow;
 
+import android.annotation.TargetApi;
 import android.app.Activity;
+import android.app.ActivityManager;
 import android.content.Context;
 import android.os.Build;
 import android.util.DisplayMetrics;
@@ -25,4 +27,14 @@ public class Utils {
         final int heightResId = context.getResources().getIdentifier("status_bar_height", "dimen", "android");
         return heightResId > 0 ? context.getResources().getDimensionPixelSize(heightResId) : 0;
     }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public static boolean isLowRamDevice(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return false;
+        }
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return activityManager != null && activityManager.isLowRamDevice();
+    }
 }
@@ -0,0 +1,106 @@
+package bakerj.backgroundblurpopupwindow;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks which algorithm gets picked for a blur.
+ */
+public class BlurAlgorithmsTest {
+
+    @Test
+    public void cheapest_picksLowestCostSupportingRadius() throws Exception {
+        BlurAlgorithm cheapSmallRadii = new FakeAlgorithm(10, 8);
+        BlurAlgorithm average = new FakeAlgorithm(50, Integer.MAX_VALUE);
+        BlurAlgorithm expensive = new FakeAlgorithm(100, Integer.MAX_VALUE);
+        BlurAlgorithm[] algorithms = {expensive, null, cheapSmallRadii, average};
+
+        assertSame(cheapSmallRadii, BlurAlgorithms.cheapest(algorithms, 100, 100, 8));
+        assertSame(average, BlurAlgorithms.cheapest(algorithms, 100, 100, 9));
+        assertNull(BlurAlgorithms.cheapest(new BlurAlgorithm[]{cheapSmallRadii}, 100, 100, 9));
+    }
+
+    @Test
+    public void cheapest_skipsAlgorithmsExceedingHeap() throws Exception {
+        BlurAlgorithm cheap = new FakeAlgorithm(10, Integer.MAX_VALUE);
+        BlurAlgorithm[] algorithms = {cheap};
+        long needed = BlurAlgorithms.estimateHeapBytes(cheap, 100, 100);
+        assertEquals(100 * 100 * (4 + BlurAlgorithms.PIXEL_WORKING_BYTES), needed);
+
+        assertSame(cheap, BlurAlgorithms.cheapest(algorithms, 100, 100, 8, needed));
+        assertNull(BlurAlgorithms.cheapest(algorithms, 100, 100, 8, needed - 1));
+        // a smaller bitmap fits again
+        assertSame(cheap, BlurAlgorithms.cheapest(algorithms, 50, 100, 8, needed - 1));
+    }
+
+    @Test
+    public void kawase_onlySupportsReachableRadii() throws Exception {
+        KawaseBlurAlgorithm kawase = new KawaseBlurAlgorithm();
+        for (int iterations = 1; iterations <= KawaseBlurKernel.MAX_ITERATIONS; iterations++) {
+            float radius = BlurAlgorithms.sigmaToRadius(KawaseBlurKernel.sigma(iterations));
+            if (radius >= 1) {
+                assertTrue(kawase.supportsRadius(Math.round(radius)));
+            }
+        }
+        // halfway between 4 and 5 iterations
+        float halfway = (KawaseBlurKernel.sigma(4) + KawaseBlurKernel.sigma(5)) / 2;
+        assertFalse(kawase.supportsRadius(Math.round(BlurAlgorithms.sigmaToRadius(halfway))));
+    }
+
+    @Test
+    public void radiusToSigma_isInvertible() throws Exception {
+        for (int radius = 0; radius < 200; radius++) {
+            assertEquals(radius, BlurAlgorithms.sigmaToRadius(
+                    BlurAlgorithms.radiusToSigma(radius)), 1e-3);
+        }
+    }
+
+    private static class FakeAlgorithm implements BlurAlgorithm {
+
+        private final long mPixelCost;
+        private final int mMaxRadius;
+
+        FakeAlgorithm(long pixelCost, int maxRadius) {
+            mPixelCost = pixelCost;
+            mMaxRadius = maxRadius;
+        }
+
+        @Override
+        public String getName() {
+            return "Fake";
+        }
+
+        @Override
+        public Bitmap.Config getPreferredConfig() {
+            return null;
+        }
+
+        @Override
+        public boolean supportsRadius(int radius) {
+            return radius <= mMaxRadius;
+        }
+
+        @Override
+        public long estimateCost(int width, int height, int radius) {
+            return mPixelCost * width * height;
+        }
+
+        @Override
+        public Bitmap blur(Bitmap bitmap, int radius, BlurCancellation cancellation) {
+            return bitmap;
+        }
+
+        @Override
+        public long getAllocatedBytes() {
+            return 0;
+        }
+
+        @Override
+        public void release() {
+
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package bakerj.backgroundblurpopupwindow;
+
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the box, gaussian and Kawase kernels reach the strength the radius stands for.
+ */
+public class BlurKernelsTest {
+
+    private static final int WIDTH = 1024, HEIGHT = 16, STRIPE = 16;
+
+    @Test
+    public void blur_keepsUniformColorAndAlpha() throws Exception {
+        int width = 37, height = 29;
+        for (int kernel = 0; kernel < 3; kernel++) {
+            int[] pixels = new int[width * height];
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = (i % 7 == 0 ? 0x80000000 : 0xff000000) | 0x336699;
+            }
+            blur(kernel, pixels, width, height, 12);
+            for (int i = 0; i < pixels.length; i++) {
+                assertEquals("kernel " + kernel,
+                        (i % 7 == 0 ? 0x80000000 : 0xff000000) | 0x336699, pixels[i]);
+            }
+        }
+    }
+
+    @Test
+    public void blur_spreadsAsMuchAsRadiusSays() throws Exception {
+        int[] radii = {2, 8, 25, 60};
+        for (int kernel = 0; kernel < 2; kernel++) {
+            for (int radius : radii) {
+                int[] pixels = stripe();
+                blur(kernel, pixels, WIDTH, HEIGHT, radius);
+                float expected = BlurAlgorithms.radiusToSigma(radius);
+                assertEquals("kernel " + kernel + " r=" + radius, expected, sigma(pixels),
+                        expected * 0.06f);
+            }
+        }
+    }
+
+    @Test
+    public void kawase_spreadsAsMuchAsAdvertised() throws Exception {
+        for (int iterations = 1; iterations <= 5; iterations++) {
+            int[] pixels = stripe();
+            KawaseBlurKernel.blur(pixels, 0, WIDTH, WIDTH, HEIGHT, iterations,
+                    new int[iterations][]);
+            float expected = KawaseBlurKernel.sigma(iterations);
+            assertEquals("iterations " + iterations, expected, sigma(pixels), expected * 0.05f);
+            assertEquals(iterations, KawaseBlurKernel.iterations(expected));
+        }
+    }
+
+    @Test
+    public void boxRadii_addUpToSigma() throws Exception {
+        for (float sigma = 1f; sigma < 60f; sigma += 0.7f) {
+            double variance = 0;
+            for (int radius : BoxBlurKernel.boxRadii(sigma)) {
+                int width = radius + radius + 1;
+                variance += (width * width - 1) / 12.0;
+            }
+            assertEquals(sigma, Math.sqrt(variance), 0.5 + sigma * 0.05);
+        }
+    }
+
+    @Test
+    public void gaussianWeights_sumToOne() throws Exception {
+        for (int radius = 1; radius < 100; radius++) {
+            int[] weights = GaussianBlurKernel.weights(BlurAlgorithms.radiusToSigma(radius));
+            int sum = weights[0];
+            for (int i = 1; i < weights.length; i++) {
+                sum += 2 * weights[i];
+                assertTrue(weights[i] >= 0);
+            }
+            assertTrue(weights[0] > 0);
+            assertEquals(1 << 16, sum);
+        }
+    }
+
+    @Test
+    public void gaussian_rejectsTooSmallBuffers() throws Exception {
+        try {
+            GaussianBlurKernel.blur(new int[37 * 29], 0, 37, 37, 29, 8, new int[37 * 28]);
+            fail("scratch");
+        } catch (ArrayIndexOutOfBoundsException expected) {
+            // checked before blurring
+        }
+        try {
+            GaussianBlurKernel.blur(new int[37 * 29], 1, 37, 37, 29, 8, new int[37 * 29]);
+            fail("pixels");
+        } catch (ArrayIndexOutOfBoundsException expected) {
+            // checked before blurring
+        }
+        try {
+            GaussianBlurKernel.blur(new int[37 * 29], 0, 36, 37, 29, 8, new int[37 * 29]);
+            fail("stride");
+        } catch (IllegalArgumentException expected) {
+            // checked before blurring
+        }
+        assertSame(GaussianBlurKernel.cachedWeights(8), GaussianBlurKernel.cachedWeights(8));
+    }
+
+    @Test
+    public void blur_stopsOnceCancelled() throws Exception {
+        BlurCancellation cancellation = new BlurCancellation();
+        cancellation.cancel();
+        for (int kernel = 0; kernel < 3; kernel++) {
+            try {
+                blur(kernel, new int[37 * 29], 37, 29, 8, cancellation);
+                fail("kernel " + kernel);
+            } catch (CancellationException expected) {
+                // kernel gave up
+            }
+        }
+    }
+
+    private static void blur(int kernel, int[] pixels, int width, int height, int radius) {
+        blur(kernel, pixels, width, height, radius, null);
+    }
+
+    private static void blur(int kernel, int[] pixels, int width, int height, int radius,
+                             BlurCancellation cancellation) {
+        if (kernel == 0) {
+            BoxBlurKernel.blur(pixels, 0, width, width, height, radius,
+                    new int[BoxBlurKernel.scratchSize(width, height)], cancellation);
+        } else if (kernel == 1) {
+            GaussianBlurKernel.blur(pixels, 0, width, width, height, radius,
+                    new int[width * height], cancellation);
+        } else {
+            KawaseBlurKernel.blur(pixels, 0, width, width, height,
+                    KawaseBlurKernel.iterations(BlurAlgorithms.radiusToSigma(radius)),
+                    new int[KawaseBlurKernel.MAX_ITERATIONS][], cancellation);
+        }
+    }
+
+    /**
+     * Vertical blue stripe in the middle of a black picture.
+     */
+    private static int[] stripe() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                boolean inside = Math.abs(x - WIDTH / 2 + 0.5) < STRIPE / 2;
+                pixels[y * WIDTH + x] = inside ? 0xff0000ff : 0xff000000;
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Horizontal standard deviation the stripe has been blurred with, its own width aside.
+     */
+    private static double sigma(int[] pixels) {
+        double total = 0, variance = 0;
+        int row = HEIGHT / 2 * WIDTH;
+        for (int x = 0; x < WIDTH; x++) {
+            double d = x - WIDTH / 2 + 0.5;
+            int blue = pixels[row + x] & 0xff;
+            total += blue;
+            variance += blue * d * d;
+        }
+        return Math.sqrt(variance / total - (STRIPE * STRIPE - 1) / 12.0);
+    }
+}
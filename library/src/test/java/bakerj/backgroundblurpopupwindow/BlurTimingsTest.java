@@ -0,0 +1,39 @@
+package bakerj.backgroundblurpopupwindow;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks estimates get corrected by measured blur durations.
+ */
+public class BlurTimingsTest {
+
+    @After
+    public void tearDown() throws Exception {
+        BlurTimings.clear();
+    }
+
+    @Test
+    public void predict_isEstimateUntilMeasured() throws Exception {
+        assertEquals(1000, BlurTimings.predict("Unknown", 1000));
+    }
+
+    @Test
+    public void predict_followsMeasuresPerAlgorithm() throws Exception {
+        BlurTimings.record("Slow", 1000, 3000);
+        BlurTimings.record("Fast", 1000, 500);
+        assertEquals(6000, BlurTimings.predict("Slow", 2000));
+        assertEquals(1000, BlurTimings.predict("Fast", 2000));
+
+        // device got faster, prediction moves toward it without jumping
+        BlurTimings.record("Slow", 1000, 1000);
+        long predicted = BlurTimings.predict("Slow", 1000);
+        assertTrue(predicted > 1000 && predicted < 3000);
+        for (int i = 0; i < 50; i++) {
+            BlurTimings.record("Slow", 1000, 1000);
+        }
+        assertEquals(1000, BlurTimings.predict("Slow", 1000), 1);
+    }
+}
@@ -0,0 +1,143 @@
+package bakerj.backgroundblurpopupwindow;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that blurring only around the changes gives the same result as blurring everything.
+ */
+public class DirtyRegionTest {
+
+    @Test
+    public void find_identicalBuffersHaveNoChange() throws Exception {
+        int[] pixels = randomPixels(30 * 20, 1);
+        int[] bounds = {-1, -1, -1, -1};
+        assertFalse(DirtyRegion.find(pixels, pixels.clone(), 30, 20, bounds));
+        assertArrayEquals(new int[]{-1, -1, -1, -1}, bounds);
+    }
+
+    @Test
+    public void find_boundsEveryChangedPixel() throws Exception {
+        int width = 30, height = 20;
+        int[] previous = randomPixels(width * height, 2);
+        int[] current = previous.clone();
+        current[4 * width + 17] ^= 1;
+        current[9 * width + 3] ^= 0x100;
+        current[11 * width + 25] ^= 0x10000;
+        int[] bounds = new int[4];
+        assertTrue(DirtyRegion.find(previous, current, width, height, bounds));
+        assertArrayEquals(new int[]{3, 4, 26, 12}, bounds);
+    }
+
+    @Test
+    public void expand_staysWithinBuffer() throws Exception {
+        int[] bounds = {3, 4, 26, 12};
+        int[] out = new int[4];
+        DirtyRegion.expand(bounds, 5, 30, 20, out);
+        assertArrayEquals(new int[]{0, 0, 30, 17}, out);
+        assertEquals(30 * 17, DirtyRegion.area(out));
+    }
+
+    @Test
+    public void hasLocalSupport_onlyForPatchedAlgorithms() throws Exception {
+        assertTrue(BlurAlgorithms.hasLocalSupport(new StackBlurAlgorithm()));
+        assertTrue(BlurAlgorithms.hasLocalSupport(new BoxBlurAlgorithm()));
+        assertTrue(BlurAlgorithms.hasLocalSupport(new GaussianBlurAlgorithm()));
+        assertFalse(BlurAlgorithms.hasLocalSupport(new KawaseBlurAlgorithm()));
+        assertFalse(BlurAlgorithms.hasLocalSupport(null));
+    }
+
+    @Test
+    public void patch_matchesFullStackBlur() throws Exception {
+        checkPatch(new Kernel() {
+            @Override
+            public void blur(int[] pixels, int width, int height, int radius) {
+                StackBlurKernel.blur(pixels, 0, width, width, height, radius);
+            }
+        });
+    }
+
+    @Test
+    public void patch_matchesFullBoxBlur() throws Exception {
+        checkPatch(new Kernel() {
+            @Override
+            public void blur(int[] pixels, int width, int height, int radius) {
+                BoxBlurKernel.blur(pixels, 0, width, width, height, radius,
+                        new int[BoxBlurKernel.scratchSize(width, height)]);
+            }
+        });
+    }
+
+    @Test
+    public void patch_matchesFullGaussianBlur() throws Exception {
+        checkPatch(new Kernel() {
+            @Override
+            public void blur(int[] pixels, int width, int height, int radius) {
+                GaussianBlurKernel.blur(pixels, 0, width, width, height, radius,
+                        new int[width * height]);
+            }
+        });
+    }
+
+    /**
+     * Patch a blurred picture as live blur does and compare it with the whole picture blurred.
+     */
+    private static void checkPatch(Kernel kernel) {
+        int width = 64, height = 48;
+        int[] radii = {1, 4, 8};
+        for (int radius : radii) {
+            int[] previous = randomPixels(width * height, radius);
+            int[] current = previous.clone();
+            Random random = new Random(radius);
+            for (int y = 20; y < 24; y++) {
+                for (int x = 30; x < 37; x++) {
+                    current[y * width + x] = 0xff000000 | random.nextInt(0x1000000);
+                }
+            }
+            int[] displayed = previous.clone();
+            kernel.blur(displayed, width, height, radius);
+            int[] expected = current.clone();
+            kernel.blur(expected, width, height, radius);
+
+            int[] patchBounds = new int[4];
+            int[] blurBounds = new int[4];
+            assertTrue(DirtyRegion.find(previous, current, width, height, patchBounds));
+            int extent = BlurAlgorithms.kernelExtent(radius);
+            DirtyRegion.expand(patchBounds, 2 * extent, width, height, blurBounds);
+            DirtyRegion.expand(patchBounds, extent, width, height, patchBounds);
+            int blurWidth = blurBounds[DirtyRegion.RIGHT] - blurBounds[DirtyRegion.LEFT];
+            int blurHeight = blurBounds[DirtyRegion.BOTTOM] - blurBounds[DirtyRegion.TOP];
+            int[] patch = new int[blurWidth * blurHeight];
+            for (int y = 0; y < blurHeight; y++) {
+                System.arraycopy(current, (blurBounds[DirtyRegion.TOP] + y) * width
+                        + blurBounds[DirtyRegion.LEFT], patch, y * blurWidth, blurWidth);
+            }
+            kernel.blur(patch, blurWidth, blurHeight, radius);
+            for (int y = patchBounds[DirtyRegion.TOP]; y < patchBounds[DirtyRegion.BOTTOM]; y++) {
+                for (int x = patchBounds[DirtyRegion.LEFT]; x < patchBounds[DirtyRegion.RIGHT];
+                     x++) {
+                    displayed[y * width + x] = patch[(y - blurBounds[DirtyRegion.TOP])
+                            * blurWidth + x - blurBounds[DirtyRegion.LEFT]];
+                }
+            }
+            assertArrayEquals("r=" + radius, expected, displayed);
+        }
+    }
+
+    private static int[] randomPixels(int size, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[size];
+        for (int i = 0; i < size; i++) {
+            pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+
+    private interface Kernel {
+
+        void blur(int[] pixels, int width, int height, int radius);
+    }
+}
@@ -0,0 +1,130 @@
+package bakerj.backgroundblurpopupwindow;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that only draws redrawing anchors alone leave the draw generation unchanged.
+ */
+public class DrawCounterTest {
+
+    @Test
+    public void onDraw_ignoresAnchorPressedState() throws Exception {
+        Node root = new Node();
+        Node content = root.add(new Node());
+        Node anchor = content.add(new Node());
+        anchor.add(new Node());
+        content.add(new Node());
+        DrawCounter<Node> counter = new DrawCounter<Node>(new Hierarchy());
+        counter.addAnchor(anchor);
+        int generation = counter.getGeneration();
+
+        // pressed, released, then its ripple: popup opened again over the same content
+        for (int draw = 0; draw < 3; draw++) {
+            anchor.invalidate();
+            counter.onDraw(root);
+            root.drawn();
+        }
+        assertEquals(generation, counter.getGeneration());
+    }
+
+    @Test
+    public void onDraw_countsContentDrawnWithAnchor() throws Exception {
+        Node root = new Node();
+        Node content = root.add(new Node());
+        Node anchor = content.add(new Node());
+        Node text = content.add(new Node());
+        DrawCounter<Node> counter = new DrawCounter<Node>(new Hierarchy());
+        counter.addAnchor(anchor);
+        int generation = counter.getGeneration();
+
+        // click handler updating the screen as the anchor is released
+        anchor.invalidate();
+        text.invalidate();
+        counter.onDraw(root);
+        root.drawn();
+        assertEquals(generation + 1, counter.getGeneration());
+
+        // group invalidated itself, or animated
+        content.invalidate();
+        counter.onDraw(root);
+        root.drawn();
+        assertEquals(generation + 2, counter.getGeneration());
+
+        // nothing flagged dirty
+        counter.onDraw(root);
+        assertEquals(generation + 3, counter.getGeneration());
+
+        // dirty flags unknown
+        anchor.invalidate();
+        counter.onDraw(null);
+        assertEquals(generation + 4, counter.getGeneration());
+    }
+
+    @Test
+    public void removeAnchor_keepsAnchorOfOtherPopups() throws Exception {
+        Node root = new Node();
+        Node anchor = root.add(new Node());
+        DrawCounter<Node> counter = new DrawCounter<Node>(new Hierarchy());
+        counter.addAnchor(anchor);
+        counter.addAnchor(anchor);
+        counter.removeAnchor(anchor);
+        anchor.invalidate();
+        counter.onDraw(root);
+        assertEquals(0, counter.getGeneration());
+
+        counter.removeAnchor(anchor);
+        counter.onDraw(root);
+        assertEquals(1, counter.getGeneration());
+    }
+
+    /**
+     * View whose invalidation marks its ancestors dirty, as android views do.
+     */
+    private static final class Node {
+
+        private final ArrayList<Node> mChildren = new ArrayList<Node>();
+        private Node mParent;
+        private boolean mDirty;
+
+        Node add(Node child) {
+            child.mParent = this;
+            mChildren.add(child);
+            return child;
+        }
+
+        void invalidate() {
+            for (Node node = this; node != null; node = node.mParent) {
+                node.mDirty = true;
+            }
+        }
+
+        void drawn() {
+            mDirty = false;
+            for (Node child : mChildren) {
+                child.drawn();
+            }
+        }
+    }
+
+    private static final class Hierarchy implements DrawCounter.Hierarchy<Node> {
+
+        @Override
+        public boolean isDirty(Node view) {
+            return view.mDirty;
+        }
+
+        @Override
+        public int getChildCount(Node view) {
+            return view.mChildren.size();
+        }
+
+        @Override
+        public Node getChildAt(Node view, int index) {
+            return view.mChildren.get(index);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package bakerj.backgroundblurpopupwindow;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that only the latest blur waiting for the running one is run.
+ */
+public class LatestBlurExecutorTest {
+
+    @Test
+    public void execute_dropsAndCancelsWaitingCommand() throws Exception {
+        LatestBlurExecutor executor = new LatestBlurExecutor();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        FutureTask<String> dropped = task("dropped");
+        FutureTask<String> latest = task("latest");
+        executor.forOwner("popup").execute(dropped);
+        executor.forOwner("popup").execute(latest);
+        assertTrue(dropped.isCancelled());
+        release.countDown();
+
+        assertEquals("latest", latest.get(5, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void execute_withoutOwnerNeverDrops() throws Exception {
+        LatestBlurExecutor executor = new LatestBlurExecutor();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        FutureTask<String> first = task("first");
+        FutureTask<String> second = task("second");
+        executor.execute(first);
+        executor.execute(second);
+        assertFalse(first.isCancelled());
+        release.countDown();
+
+        assertEquals("first", first.get(5, TimeUnit.SECONDS));
+        assertEquals("second", second.get(5, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void forOwner_onlyDropsCommandsOfSameOwner() throws Exception {
+        LatestBlurExecutor executor = new LatestBlurExecutor();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        FutureTask<String> first = task("first");
+        FutureTask<String> other = task("other");
+        FutureTask<String> latest = task("latest");
+        executor.forOwner("popup").execute(first);
+        executor.forOwner("other popup").execute(other);
+        executor.forOwner("popup").execute(latest);
+        assertTrue(first.isCancelled());
+        assertFalse(other.isCancelled());
+        release.countDown();
+
+        assertEquals("other", other.get(5, TimeUnit.SECONDS));
+        assertEquals("latest", latest.get(5, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void execute_keepsRunningAfterFailingCommand() throws Exception {
+        LatestBlurExecutor executor = new LatestBlurExecutor();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("blur failed");
+            }
+        });
+        FutureTask<String> next = task("next");
+        executor.execute(next);
+        assertEquals("next", next.get(5, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    private static FutureTask<String> task(final String result) {
+        return new FutureTask<String>(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return result;
+            }
+        });
+    }
+}
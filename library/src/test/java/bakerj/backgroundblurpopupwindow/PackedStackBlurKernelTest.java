@@ -0,0 +1,51 @@
+package bakerj.backgroundblurpopupwindow;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the packed kernel gives the same result as the three planes one.
+ */
+public class PackedStackBlurKernelTest {
+
+    @Test
+    public void blur_isBitIdenticalToPlanesKernel() throws Exception {
+        int[][] sizes = {{1, 1}, {1, 40}, {40, 1}, {17, 11}, {123, 77}};
+        int[] radii = {1, 2, 6, 25, 60};
+        StackBlurContext context = new StackBlurContext();
+        for (int[] size : sizes) {
+            for (int radius : radii) {
+                int[] pixels = StackBlurKernelTest.randomPixels(size[0] * size[1], radius);
+                int[] expected = pixels.clone();
+                StackBlurKernel.blur(expected, 0, size[0], size[0], size[1], radius);
+                PackedStackBlurKernel.blur(pixels, 0, size[0], size[0], size[1], radius, context);
+                assertArrayEquals("w=" + size[0] + " h=" + size[1] + " r=" + radius,
+                        expected, pixels);
+            }
+        }
+    }
+
+    @Test
+    public void blur_honoursOffsetAndStride() throws Exception {
+        int width = 45, height = 30, stride = 52, offset = 9;
+        int[] pixels = StackBlurKernelTest.randomPixels(offset + height * stride, 5);
+        int[] expected = pixels.clone();
+        StackBlurKernel.blur(expected, offset, stride, width, height, 7);
+        PackedStackBlurKernel.blur(pixels, offset, stride, width, height, 7,
+                new StackBlurContext());
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test
+    public void context_onlyCountsFirstAllocations() throws Exception {
+        StackBlurContext context = new StackBlurContext();
+        int[] pixels = StackBlurKernelTest.randomPixels(64 * 48, 3);
+        PackedStackBlurKernel.blur(pixels, 0, 64, 64, 48, 5, context);
+        // transposed buffer, clamped indexes and stack
+        assertEquals((64 * 48 + 64 + 48 + 11) * 4, context.takeAllocatedBytes());
+        PackedStackBlurKernel.blur(pixels, 0, 64, 64, 48, 5, context);
+        PackedStackBlurKernel.blur(pixels, 0, 32, 32, 24, 5, context);
+        assertEquals(0, context.takeAllocatedBytes());
+    }
+}
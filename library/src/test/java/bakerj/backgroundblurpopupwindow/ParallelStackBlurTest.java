@@ -0,0 +1,67 @@
+package bakerj.backgroundblurpopupwindow;
+
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that splitting the blur in bands doesn't change its result.
+ */
+public class ParallelStackBlurTest {
+
+    @Test
+    public void blur_isBitIdenticalToSerialKernel() throws Exception {
+        int[][] sizes = {{3, 200}, {200, 3}, {123, 77}, {256, 256}};
+        int[] radii = {1, 6, 25};
+        int[] bandCounts = {2, 3, 8};
+        StackBlurContext context = new StackBlurContext();
+        for (int[] size : sizes) {
+            for (int radius : radii) {
+                for (int bands : bandCounts) {
+                    int[] pixels = StackBlurKernelTest.randomPixels(size[0] * size[1], bands);
+                    int[] expected = pixels.clone();
+                    StackBlurKernel.blur(expected, 0, size[0], size[0], size[1], radius);
+                    ParallelStackBlur.blur(pixels, 0, size[0], size[0], size[1], radius, context,
+                            bands);
+                    assertArrayEquals("w=" + size[0] + " h=" + size[1] + " r=" + radius
+                            + " bands=" + bands, expected, pixels);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void blur_honoursOffsetAndStride() throws Exception {
+        int width = 90, height = 60, stride = 100, offset = 7;
+        int[] pixels = StackBlurKernelTest.randomPixels(offset + height * stride, 3);
+        int[] expected = pixels.clone();
+        StackBlurKernel.blur(expected, offset, stride, width, height, 5);
+        ParallelStackBlur.blur(pixels, offset, stride, width, height, 5, new StackBlurContext(),
+                4);
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test
+    public void blur_cancelledBandsAbortWholeBlur() throws Exception {
+        BlurCancellation cancellation = new BlurCancellation();
+        cancellation.cancel();
+        StackBlurContext context = new StackBlurContext();
+        context.setCancellation(cancellation);
+        int[] pixels = StackBlurKernelTest.randomPixels(128 * 96, 5);
+        try {
+            ParallelStackBlur.blur(pixels, 0, 128, 128, 96, 8, context, 4);
+            fail();
+        } catch (CancellationException expected) {
+            // every band gave up
+        }
+
+        // context is still usable once cancellation is removed
+        context.setCancellation(null);
+        int[] expected = pixels.clone();
+        StackBlurKernel.blur(expected, 0, 128, 128, 96, 8);
+        ParallelStackBlur.blur(pixels, 0, 128, 128, 96, 8, context, 4);
+        assertArrayEquals(expected, pixels);
+    }
+}
@@ -0,0 +1,133 @@
+package bakerj.backgroundblurpopupwindow;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the stack blur kernel against a straightforward triangle filter.
+ */
+public class StackBlurKernelTest {
+
+    @Test
+    public void blur_matchesReferenceFilter() throws Exception {
+        int[][] sizes = {{1, 1}, {1, 9}, {9, 1}, {17, 11}, {64, 48}};
+        int[] radii = {1, 2, 6, 25};
+        for (int[] size : sizes) {
+            for (int radius : radii) {
+                int[] pixels = randomPixels(size[0] * size[1], radius);
+                int[] expected = referenceBlur(pixels, size[0], size[1], radius);
+                StackBlurKernel.blur(pixels, 0, size[0], size[0], size[1], radius);
+                assertArrayEquals("w=" + size[0] + " h=" + size[1] + " r=" + radius,
+                        expected, pixels);
+            }
+        }
+    }
+
+    @Test
+    public void blur_reusedContextGivesSameResult() throws Exception {
+        StackBlurContext context = new StackBlurContext();
+        int[][] runs = {{40, 30, 8}, {12, 50, 3}, {40, 30, 8}, {64, 64, 1}};
+        for (int[] run : runs) {
+            int[] pixels = randomPixels(run[0] * run[1], run[2]);
+            int[] expected = pixels.clone();
+            StackBlurKernel.blur(expected, 0, run[0], run[0], run[1], run[2]);
+            StackBlurKernel.blur(pixels, 0, run[0], run[0], run[1], run[2], context);
+            assertArrayEquals(expected, pixels);
+        }
+        context.release();
+    }
+
+    @Test
+    public void blur_honoursOffsetAndStride() throws Exception {
+        int width = 20, height = 15, stride = 27, offset = 5;
+        int[] dense = randomPixels(width * height, 1);
+        int[] padded = new int[offset + height * stride];
+        for (int i = 0; i < padded.length; i++) {
+            padded[i] = 0x12345678;
+        }
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(dense, y * width, padded, offset + y * stride, width);
+        }
+
+        StackBlurKernel.blur(dense, 0, width, width, height, 4);
+        StackBlurKernel.blur(padded, offset, stride, width, height, 4);
+
+        for (int i = 0; i < padded.length; i++) {
+            int x = (i - offset) % stride;
+            int y = (i - offset) / stride;
+            if (i >= offset && x < width && y < height) {
+                assertEquals(dense[y * width + x], padded[i]);
+            } else {
+                assertEquals(0x12345678, padded[i]);
+            }
+        }
+    }
+
+    @Test
+    public void blur_keepsUniformColorAndAlpha() throws Exception {
+        int[] pixels = new int[32 * 32];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (i % 7 == 0 ? 0x80000000 : 0xff000000) | 0x336699;
+        }
+        StackBlurKernel.blur(pixels, 0, 32, 32, 32, 10);
+        for (int i = 0; i < pixels.length; i++) {
+            assertEquals((i % 7 == 0 ? 0x80000000 : 0xff000000) | 0x336699, pixels[i]);
+        }
+    }
+
+    @Test
+    public void blur_ignoresRadiusBelowOne() throws Exception {
+        int[] pixels = randomPixels(100, 0);
+        int[] copy = pixels.clone();
+        StackBlurKernel.blur(pixels, 0, 10, 10, 10, 0);
+        assertArrayEquals(copy, pixels);
+    }
+
+    static int[] randomPixels(int count, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    /**
+     * Separable triangle filter with clamped edges, truncated after each pass.
+     */
+    static int[] referenceBlur(int[] pixels, int w, int h, int radius) {
+        int divsum = (radius + 1) * (radius + 1);
+        int[] horizontal = new int[w * h * 3];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                for (int c = 0; c < 3; c++) {
+                    int sum = 0;
+                    for (int i = -radius; i <= radius; i++) {
+                        int p = pixels[y * w + Math.min(w - 1, Math.max(0, x + i))];
+                        sum += ((p >> (16 - 8 * c)) & 0xff) * (radius + 1 - Math.abs(i));
+                    }
+                    horizontal[(y * w + x) * 3 + c] = sum / divsum;
+                }
+            }
+        }
+        int[] result = new int[w * h];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int color = pixels[y * w + x] & 0xff000000;
+                for (int c = 0; c < 3; c++) {
+                    int sum = 0;
+                    for (int i = -radius; i <= radius; i++) {
+                        int row = Math.min(h - 1, Math.max(0, y + i));
+                        sum += horizontal[(row * w + x) * 3 + c] * (radius + 1 - Math.abs(i));
+                    }
+                    color |= (sum / divsum) << (16 - 8 * c);
+                }
+                result[y * w + x] = color;
+            }
+        }
+        return result;
+    }
+}
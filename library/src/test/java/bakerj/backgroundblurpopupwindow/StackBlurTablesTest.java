@@ -0,0 +1,49 @@
+package bakerj.backgroundblurpopupwindow;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the shared division tables of the stack blur.
+ */
+public class StackBlurTablesTest {
+
+    @Test
+    public void divisionTable_holdsQuotients() throws Exception {
+        for (int radius = 1; radius <= 30; radius++) {
+            int divsum = (radius + 1) * (radius + 1);
+            int[] table = StackBlurTables.divisionTable(radius);
+            assertEquals(256 * divsum, table.length);
+            for (int i = 0; i < table.length; i++) {
+                assertEquals(i / divsum, table[i]);
+            }
+        }
+    }
+
+    @Test
+    public void divisionTable_isSharedUntilEvicted() throws Exception {
+        StackBlurTables.clear();
+        int[] table = StackBlurTables.divisionTable(25);
+        assertSame(table, StackBlurTables.divisionTable(25));
+        // fill the cache with other large tables until radius 25 is evicted
+        for (int radius = 26; radius < 40; radius++) {
+            StackBlurTables.divisionTable(radius);
+        }
+        assertNotSame(table, StackBlurTables.divisionTable(25));
+    }
+
+    @Test
+    public void divisionTable_keepsLatestLargeTable() throws Exception {
+        StackBlurTables.clear();
+        // 256 * 61 * 61 entries, larger than the whole cache
+        int[] table = StackBlurTables.divisionTable(60);
+        assertTrue(table.length * 4 > StackBlurTables.MAX_CACHE_BYTES);
+        assertSame(table, StackBlurTables.divisionTable(60));
+        // smaller tables, as the ones of a preview, don't evict it
+        StackBlurTables.divisionTable(10);
+        assertSame(table, StackBlurTables.divisionTable(60));
+        StackBlurTables.divisionTable(61);
+        assertNotSame(table, StackBlurTables.divisionTable(60));
+    }
+}